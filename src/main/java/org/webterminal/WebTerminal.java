@@ -21,7 +21,6 @@ import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 import static org.apache.commons.lang3.builder.ToStringStyle.NO_CLASS_NAME_STYLE;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
-import org.springframework.scheduling.annotation.EnableScheduling;
 //import org.apache.catalina.connector.Connector;
 //import org.springframework.beans.factory.annotation.Value;
 //import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
@@ -30,7 +29,6 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 //import org.springframework.context.annotation.Bean;
 
 @SpringBootApplication
-@EnableScheduling
 public class WebTerminal {
 
     /**
@@ -0,0 +1,74 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.cluster;
+
+import java.util.Collection;
+import org.webterminal.pojo.TerminalSessionInfo;
+
+/**
+ * session directory shared by all nodes: which node owns the root (NEW)
+ * connection of a token, so JOIN/WATCH/TAKE and session lists work across
+ * nodes. Register a bean implementing it to plug in a shared store, else
+ * LocalClusterRegistry (this JVM only) is used.
+ *
+ * publish/unpublish are called with the session registry locked, keep them
+ * quick (e.g. write behind). Entries of a node that dies must age out in the
+ * implementation, e.g. keys with a TTL the owner keeps refreshing
+ */
+public interface ClusterRegistry {
+
+    /**
+     *
+     * @return this node
+     */
+    public String getNodeId();
+
+    /**
+     *
+     * @param nodeId
+     * @return websocket URL of node's /webterminal, null if unknown
+     */
+    public String getNodeUrl(String nodeId);
+
+    /**
+     * root connection on this node under token, new or after a TAKE
+     *
+     * @param token
+     * @param terminalSessionInfo
+     */
+    public void publish(String token, TerminalSessionInfo terminalSessionInfo);
+
+    /**
+     *
+     * @param token
+     */
+    public void unpublish(String token);
+
+    /**
+     *
+     * @param token
+     * @return null if no node has it
+     */
+    public ClusterSession lookup(String token);
+
+    /**
+     *
+     * @return root sessions of all nodes, this one included
+     */
+    public Collection<ClusterSession> sessions();
+}
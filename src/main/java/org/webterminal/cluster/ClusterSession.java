@@ -0,0 +1,66 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.cluster;
+
+import org.webterminal.pojo.TerminalSessionInfo;
+
+/**
+ * directory entry, a root session and the node that owns it
+ */
+public final class ClusterSession {
+
+    private final String nodeId;
+    private final String token;
+    private final TerminalSessionInfo terminalSessionInfo;
+
+    /**
+     *
+     * @param nodeId
+     * @param token
+     * @param terminalSessionInfo
+     */
+    public ClusterSession(String nodeId, String token, TerminalSessionInfo terminalSessionInfo) {
+        this.nodeId = nodeId;
+        this.token = token;
+        this.terminalSessionInfo = terminalSessionInfo;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     *
+     * @return as last published by the owner
+     */
+    public TerminalSessionInfo getTerminalSessionInfo() {
+        return terminalSessionInfo;
+    }
+}
@@ -0,0 +1,81 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.cluster;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.webterminal.pojo.TerminalSessionInfo;
+
+/**
+ * in process stand in: the directory is shared by every instance in this
+ * JVM, so a single node works as before and several instances act as nodes
+ * of one cluster (tests). Entries hold the live TerminalSessionInfo, a
+ * shared store would hold a copy
+ */
+public class LocalClusterRegistry implements ClusterRegistry {
+
+    private static final Map<String, String> nodes = new ConcurrentHashMap<>();
+    private static final Map<String, ClusterSession> directory = new ConcurrentHashMap<>();
+
+    private final String nodeId;
+
+    /**
+     *
+     * @param nodeId
+     * @param nodeUrl websocket URL other nodes reach this one at, may be empty
+     */
+    public LocalClusterRegistry(String nodeId, String nodeUrl) {
+        this.nodeId = nodeId;
+        if (nodeUrl != null && !nodeUrl.isEmpty()) {
+            nodes.put(nodeId, nodeUrl);
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public String getNodeUrl(String nodeId) {
+        return nodes.get(nodeId);
+    }
+
+    @Override
+    public void publish(String token, TerminalSessionInfo terminalSessionInfo) {
+        directory.put(token, new ClusterSession(nodeId, token, terminalSessionInfo));
+    }
+
+    @Override
+    public void unpublish(String token) {
+        // only own entries, token could have moved on to another node
+        directory.computeIfPresent(token, (k, entry) -> entry.getNodeId().equals(nodeId) ? null : entry);
+    }
+
+    @Override
+    public ClusterSession lookup(String token) {
+        return token == null ? null : directory.get(token);
+    }
+
+    @Override
+    public Collection<ClusterSession> sessions() {
+        return Collections.unmodifiableCollection(directory.values());
+    }
+}
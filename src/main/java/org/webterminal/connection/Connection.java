@@ -20,15 +20,20 @@ package org.webterminal.connection;
 import com.jcraft.jsch.JSchException;
 import org.webterminal.pojo.RowsCols;
 import org.webterminal.pojo.TerminalSessionInfo;
-import org.webterminal.service.impl.WebTerminalServiceImpl;
+import org.webterminal.screen.ScreenModel;
 import static org.webterminal.service.impl.WebTerminalServiceImpl.disconnectChildren;
-import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientBytes;
 import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientString;
 import org.webterminal.util.AuditLogging;
+import org.webterminal.util.BufferPool;
+import org.webterminal.util.OutputCoalescer;
+import org.webterminal.util.SessionThreads;
+import org.webterminal.util.Utf8StreamDecoder;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
 import org.springframework.web.socket.BinaryMessage;
 import org.springframework.web.socket.TextMessage;
 import org.springframework.web.socket.WebSocketSession;
@@ -36,6 +41,11 @@ import static org.webterminal.service.impl.WebTerminalServiceImpl.connectionClos
 
 public abstract class Connection {
 
+    /**
+     * bytes reserved in front of output data for the binary frame type tag
+     */
+    public static final int FRAME_HEADROOM = 1;
+
     /**
      * webSocketSession of this connection, potentially switched out
      */
@@ -51,6 +61,51 @@ public abstract class Connection {
      */
     protected final AuditLogging auditLogging;
 
+    /**
+     * batches backend reads into fewer frames, per connection type
+     */
+    protected OutputCoalescer outputCoalescer = OutputCoalescer.passThrough();
+
+    /**
+     * backend output decoder, keeps split multi-byte characters across reads
+     */
+    protected final Utf8StreamDecoder outputDecoder = new Utf8StreamDecoder();
+
+    /**
+     * owner webSocketSession plus watchers (children) of this connection
+     */
+    protected final OutputBroadcast outputBroadcast;
+
+    /**
+     * guards close(), a lock not a monitor so virtual threads don't pin
+     */
+    protected final ReentrantLock closeLock = new ReentrantLock();
+
+    /**
+     * screen state for snapshots, root connections only, null otherwise
+     */
+    protected ScreenModel screenModel;
+
+    /**
+     * screen update of a chunk and taking its recipients happen together, so
+     * a snapshot always matches what has been or is about to be sent; the
+     * publish itself runs after, a blocked owner holds up nobody else
+     */
+    protected final ReentrantLock outputLock = new ReentrantLock();
+
+    /**
+     * delta frames for low bandwidth watchers, at most this many per second
+     */
+    protected int deltaFps = 10;
+
+    // runs only while there are delta watchers, guarded by outputLock
+    private ScheduledFuture<?> deltaTicker;
+
+    /**
+     * paces large user input into the backend, null sends straight through
+     */
+    protected PasteWriter pasteWriter;
+
     /**
      * construct/init Connection
      *
@@ -61,7 +116,8 @@ public abstract class Connection {
     public Connection(WebSocketSession webSocketSession, TerminalSessionInfo terminalSessionInfo, AuditLogging auditLogging) {
         this.terminalSessionInfo = terminalSessionInfo;
         this.auditLogging = auditLogging;
-        this.webSocketSession = webSocketSession;
+        this.outputBroadcast = new OutputBroadcast(this::getRedraw);
+        setWebSocketSession(webSocketSession);
     }
 
     /**
@@ -80,7 +136,40 @@ public abstract class Connection {
      * @param data
      * @throws IOException
      */
-    public abstract void send(String data) throws IOException;
+    public void send(String data) throws IOException {
+        send(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * send raw bytes to downstream, as is
+     *
+     * @param data
+     * @throws IOException
+     */
+    public abstract void send(byte[] data) throws IOException;
+
+    /**
+     * user input, through the paste writer if there is one
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void input(byte[] data) throws IOException {
+        auditLogging.logInput(terminalSessionInfo, data);
+        if (pasteWriter != null) {
+            pasteWriter.write(data);
+        } else {
+            send(data);
+        }
+    }
+
+    /**
+     *
+     * @param pasteWriter
+     */
+    public void setPasteWriter(PasteWriter pasteWriter) {
+        this.pasteWriter = pasteWriter;
+    }
 
     /**
      *
@@ -89,20 +178,26 @@ public abstract class Connection {
     public abstract boolean isAlive();
 
     /**
-     * send message to upstream user (UI)
+     * send message to upstream user (UI), encoded per negotiated protocol
      *
      * @param message
      * @throws IOException
      */
     public void sendToUser(byte[] message) throws IOException {
-        // tm is lot larger than bm, but client side processing for bm takes longer
-        //
-        //TextMessage tm = toClientBytes(message);
-        //BinaryMessage bm = toClientBinary(message);
-        //logger.debug("tm: {}, bm: {}", tm.getPayloadLength(), bm.getPayloadLength());
-
-        this.sendToUser(toClientBytes(message));
-        //this.sendToUser(toClientBinary(message));
+        byte[] buffer = new byte[FRAME_HEADROOM + message.length];
+        System.arraycopy(message, 0, buffer, FRAME_HEADROOM, message.length);
+        sendToUser(new OutputChunk(buffer, FRAME_HEADROOM, message.length));
+    }
+
+    /**
+     * send output to upstream user (UI), encoded per negotiated protocol,
+     * each encoding done at most once for self and watchers
+     *
+     * @param chunk
+     * @throws IOException
+     */
+    public void sendToUser(OutputChunk chunk) throws IOException {
+        outputBroadcast.publish(chunk);
     }
 
     /**
@@ -122,15 +217,7 @@ public abstract class Connection {
      * @throws IOException
      */
     public void sendToUser(TextMessage message) throws IOException {
-        if (webSocketSession != null && webSocketSession.isOpen()) {
-            // need ordered access to webSocketSession, ok to sync on non-final here
-            synchronized (webSocketSession) {
-                webSocketSession.sendMessage(message);
-            }
-            terminalSessionInfo.setTrafficTimeNow();
-        }
-        // need to send to child sessions if any
-        WebTerminalServiceImpl.sendToChildren(terminalSessionInfo.getChildren(), message);
+        outputBroadcast.publish(message);
     }
 
     /**
@@ -140,16 +227,7 @@ public abstract class Connection {
      * @throws IOException
      */
     public void sendToUser(BinaryMessage message) throws IOException {
-        if (webSocketSession != null && webSocketSession.isOpen()) {
-            // ok to synch on non-final here
-            synchronized (webSocketSession) {
-                webSocketSession.sendMessage(message);
-            }
-
-            terminalSessionInfo.setTrafficTimeNow();
-        }
-        // need to send to child sessions if any
-        WebTerminalServiceImpl.sendToChildren(terminalSessionInfo.getChildren(), message);
+        outputBroadcast.publish(message);
     }
 
     /**
@@ -174,17 +252,43 @@ public abstract class Connection {
      */
     public void setWebSocketSession(WebSocketSession webSocketSession) {
         this.webSocketSession = webSocketSession;
+        outputBroadcast.setOwner(webSocketSession != null
+                ? new Subscriber(webSocketSession, terminalSessionInfo)
+                : null);
+    }
+
+    /**
+     *
+     * @param screenModel
+     */
+    public void setScreenModel(ScreenModel screenModel) {
+        this.screenModel = screenModel;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public OutputBroadcast getOutputBroadcast() {
+        return outputBroadcast;
+    }
+
+    /**
+     *
+     * @param outputCoalescer
+     */
+    public void setOutputCoalescer(OutputCoalescer outputCoalescer) {
+        this.outputCoalescer = outputCoalescer;
     }
 
     /**
      * close webSocketSession only
      */
     public void webSocketSessionClose() {
-        if (webSocketSession != null && webSocketSession.isOpen()) {
-            try {
-                webSocketSession.close();
-            } catch (IOException ex) {
-            }
+        // let queued output go out first
+        Subscriber subscriber = outputBroadcast.getOwner();
+        if (subscriber != null) {
+            subscriber.closeAfterFlush();
         }
     }
 
@@ -192,16 +296,16 @@ public abstract class Connection {
      * suspends connection
      */
     public void suspend() {
-        disconnectChildren(terminalSessionInfo);
+        disconnectChildren(this);
         terminalSessionInfo.setSuspended(true);
 
         try {
             sendToUser("\r\nSession Suspended");
-            webSocketSession.close();
         } catch (IOException ex) {
         }
+        webSocketSessionClose();
 
-        webSocketSession = null;
+        setWebSocketSession(null);
     }
 
     /**
@@ -226,6 +330,132 @@ public abstract class Connection {
         return auditLogging.bufferedData();
     }
 
+    /**
+     * text that brings a terminal up to date with this session: screen
+     * snapshot if there is a screen model, else the raw output tail
+     *
+     * @return
+     */
+    public String getRedraw() {
+        if (screenModel == null) {
+            // home, clear screen, then replay
+            return "\u001b[H\u001b[2J" + new String(auditLogging.bufferedData(), StandardCharsets.UTF_8);
+        }
+        outputLock.lock();
+        try {
+            return screenModel.snapshot();
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * catch up a new participant or owner, nothing sent before can get
+     * ahead of it in the queue
+     *
+     * @param subscriber
+     */
+    public void replayTo(Subscriber subscriber) {
+        if (subscriber == null) {
+            return;
+        }
+        outputLock.lock();
+        try {
+            TextMessage redraw = toClientString(getRedraw());
+            if (!subscriber.offer(redraw)) {
+                subscriber.resync(redraw, null);
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * JOIN/WATCH: replay and start receiving output, atomically
+     *
+     * @param subscriber
+     */
+    public void attach(Subscriber subscriber) {
+        outputLock.lock();
+        try {
+            replayTo(subscriber);
+            outputBroadcast.subscribe(subscriber);
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    /**
+     * WATCH in delta mode: replay, then screen deltas at deltaFps, cost
+     * bound by screen size not output volume. Raw output without a model
+     *
+     * @param subscriber
+     */
+    public void attachDelta(Subscriber subscriber) {
+        if (screenModel == null) {
+            attach(subscriber);
+            return;
+        }
+        outputLock.lock();
+        try {
+            replayTo(subscriber);
+            outputBroadcast.subscribeDelta(subscriber);
+            if (deltaTicker == null) {
+                deltaTicker = SessionThreads.scheduleAtFixedRate(this::publishDelta, 1000 / Math.max(1, deltaFps));
+            }
+        } finally {
+            outputLock.unlock();
+        }
+    }
+
+    private void publishDelta() {
+        TextMessage frame = null;
+        // shared ticker, a busy connection just gets its delta next tick
+        if (!outputLock.tryLock()) {
+            return;
+        }
+        try {
+            if (outputBroadcast.getDeltaWatcherCount() == 0) {
+                // last one left
+                deltaTicker.cancel(false);
+                deltaTicker = null;
+                return;
+            }
+            if (screenModel.hasDirtyRows()) {
+                frame = toClientString(screenModel.deltaSinceLast());
+            }
+        } finally {
+            outputLock.unlock();
+        }
+        if (frame != null) {
+            outputBroadcast.publishDelta(frame);
+        }
+    }
+
+    /**
+     *
+     * @param deltaFps
+     */
+    public void setDeltaFps(int deltaFps) {
+        this.deltaFps = deltaFps;
+    }
+
+    /**
+     *
+     * @param rowsCols
+     */
+    protected void resizeScreen(RowsCols rowsCols) {
+        auditLogging.logResize(terminalSessionInfo, rowsCols);
+        if (screenModel != null) {
+            outputLock.lock();
+            try {
+                screenModel.resize(rowsCols.getRows(), rowsCols.getCols());
+            } finally {
+                outputLock.unlock();
+            }
+        }
+    }
+
     /**
      * act upon received screen size change
      *
@@ -239,6 +469,34 @@ public abstract class Connection {
      * @throws IOException
      */
     public void blockingRead(InputStream inputStream) throws IOException {
+        onBackendReady();
+
+        // read buffer reused for the whole session, consumers copy what they keep
+        BufferPool bufferPool = BufferPool.forSize(FRAME_HEADROOM + outputCoalescer.getMaxBytes());
+        byte[] buffer = bufferPool.acquire();
+        OutputChunk chunk = new OutputChunk(outputDecoder);
+        try {
+            int i;
+            while ((i = outputCoalescer.fill(inputStream, buffer, FRAME_HEADROOM)) != -1) {
+                if (i == 0) {
+                    // nothing read, no empty frame
+                    continue;
+                }
+                chunk.reset(buffer, FRAME_HEADROOM, i);
+                onBackendOutput(chunk);
+            }
+        } finally {
+            onBackendClosed();
+            bufferPool.release(buffer);
+        }
+    }
+
+    /**
+     * backend connected (and logged in if auto login), hand over to user
+     *
+     * @throws IOException
+     */
+    protected void onBackendReady() throws IOException {
         sendToUser("Connection ready\r\n");
 
         // wipe password now
@@ -246,19 +504,42 @@ public abstract class Connection {
             terminalSessionInfo.setPassword("*");
         }
         terminalSessionInfo.setReady(true);
+    }
 
+    /**
+     * chunk of backend output to users and audit log, buffer is reused after
+     *
+     * @param chunk
+     * @throws IOException
+     */
+    protected void onBackendOutput(OutputChunk chunk) throws IOException {
+        Subscriber[] recipients;
+        outputLock.lock();
         try {
-            byte[] buffer = new byte[1024];
-            int i;
-            while ((i = inputStream.read(buffer)) != -1) {
-                byte[] bi = Arrays.copyOfRange(buffer, 0, i);
-                sendToUser(bi);
-                terminalSessionInfo.setTrafficTimeNow();
-                auditLogging.logTraffic(terminalSessionInfo, bi);
+            if (screenModel != null) {
+                screenModel.feed(chunk.text());
             }
+            recipients = outputBroadcast.recipients();
         } finally {
+            outputLock.unlock();
+        }
+        outputBroadcast.publish(chunk, recipients);
+        terminalSessionInfo.setTrafficTimeNow();
+        auditLogging.logTraffic(terminalSessionInfo, chunk);
+        chunk.done();
+        if (pasteWriter != null) {
+            pasteWriter.echoed();
+        }
+    }
+
+    /**
+     * backend went away, tear down
+     */
+    protected void onBackendClosed() {
+        try {
             sendToUser("Server Closed Connection");
-            connectionClose(this);
+        } catch (IOException ex) {
         }
+        connectionClose(this);
     }
 }
@@ -0,0 +1,270 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientString;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketMessage;
+
+/**
+ * fan-out of one connection's output: its owner plus JOIN/WATCH watchers.
+ * Watchers kept in a copy-on-write array, the read loop only does one
+ * volatile read per chunk, no map lookups. Every subscriber gets the same
+ * encoded message on its own outbound queue. Delta watchers get screen
+ * deltas at a capped rate instead of raw output
+ */
+public class OutputBroadcast {
+
+    private static final Subscriber[] NONE = new Subscriber[0];
+
+    private final Supplier<String> redraw;
+
+    private volatile Subscriber owner;
+    private volatile Subscriber[] watchers = NONE;
+    private volatile Subscriber[] deltaWatchers = NONE;
+    // owner first, then watchers
+    private volatile Subscriber[] recipients = NONE;
+
+    /**
+     *
+     * @param redraw current screen, to resync subscribers that fell behind
+     */
+    public OutputBroadcast(Supplier<String> redraw) {
+        this.redraw = redraw;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Subscriber getOwner() {
+        return owner;
+    }
+
+    /**
+     * null while suspended
+     *
+     * @param owner
+     */
+    public synchronized void setOwner(Subscriber owner) {
+        this.owner = owner;
+        updateRecipients();
+    }
+
+    /**
+     *
+     * @param watcher
+     */
+    public synchronized void subscribe(Subscriber watcher) {
+        if (watcher != null) {
+            watchers = add(watchers, watcher);
+            updateRecipients();
+        }
+    }
+
+    /**
+     *
+     * @param watcher
+     */
+    public synchronized void subscribeDelta(Subscriber watcher) {
+        if (watcher != null) {
+            deltaWatchers = add(deltaWatchers, watcher);
+        }
+    }
+
+    /**
+     *
+     * @param watcher
+     */
+    public synchronized void unsubscribe(Subscriber watcher) {
+        watchers = remove(watchers, watcher);
+        deltaWatchers = remove(deltaWatchers, watcher);
+        updateRecipients();
+    }
+
+    /**
+     *
+     */
+    public synchronized void unsubscribeAll() {
+        watchers = NONE;
+        deltaWatchers = NONE;
+        updateRecipients();
+    }
+
+    private void updateRecipients() {
+        Subscriber self = owner;
+        recipients = self == null ? watchers : concat(new Subscriber[]{self}, watchers);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getWatcherCount() {
+        return watchers.length + deltaWatchers.length;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getDeltaWatcherCount() {
+        return deltaWatchers.length;
+    }
+
+    private static Subscriber[] concat(Subscriber[] current, Subscriber[] more) {
+        Subscriber[] updated = Arrays.copyOf(current, current.length + more.length);
+        System.arraycopy(more, 0, updated, current.length, more.length);
+        return updated;
+    }
+
+    private static Subscriber[] add(Subscriber[] current, Subscriber watcher) {
+        Subscriber[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = watcher;
+        return updated;
+    }
+
+    private static Subscriber[] remove(Subscriber[] current, Subscriber watcher) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == watcher) {
+                Subscriber[] updated = new Subscriber[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, i);
+                System.arraycopy(current, i + 1, updated, i, current.length - i - 1);
+                return updated;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * chunk encodes itself at most once per protocol, shared by everyone
+     *
+     * @param chunk
+     */
+    public void publish(OutputChunk chunk) {
+        publish(chunk, recipients());
+    }
+
+    /**
+     * owner first, then watchers, as of now
+     *
+     * @return
+     */
+    public Subscriber[] recipients() {
+        return recipients;
+    }
+
+    /**
+     * to recipients taken earlier, anyone subscribed since got a redraw that
+     * already covers the chunk
+     *
+     * @param chunk
+     * @param recipients
+     */
+    public void publish(OutputChunk chunk, Subscriber[] recipients) {
+        TextMessage redraw = null;
+        for (Subscriber watcher : recipients) {
+            redraw = deliver(watcher, watcher.isBinary() ? chunk.toBinaryMessage() : chunk.toTextMessage(), redraw);
+        }
+    }
+
+    /**
+     *
+     * @param message
+     */
+    public void publish(TextMessage message) {
+        Subscriber[] current = watchers;
+        Subscriber[] delta = deltaWatchers;
+        Subscriber self = owner;
+        TextMessage redraw = null;
+        if (self != null) {
+            redraw = deliver(self, message, redraw);
+        }
+        for (Subscriber watcher : current) {
+            redraw = deliver(watcher, message, redraw);
+        }
+        for (Subscriber watcher : delta) {
+            redraw = deliver(watcher, message, redraw);
+        }
+    }
+
+    /**
+     * screen delta, encoded once for all delta watchers
+     *
+     * @param frame
+     */
+    public void publishDelta(TextMessage frame) {
+        TextMessage redraw = null;
+        for (Subscriber watcher : deltaWatchers) {
+            redraw = deliver(watcher, frame, redraw);
+        }
+    }
+
+    /**
+     *
+     * @param message
+     */
+    public void publish(BinaryMessage message) {
+        // sending consumes the ByteBuffer, each subscriber gets its own view
+        ByteBuffer payload = message.getPayload();
+        Subscriber[] current = watchers;
+        Subscriber self = owner;
+        TextMessage redraw = null;
+        if (self != null) {
+            redraw = deliver(self, new BinaryMessage(payload.duplicate()), redraw);
+        }
+        for (Subscriber watcher : current) {
+            redraw = deliver(watcher, new BinaryMessage(payload.duplicate()), redraw);
+        }
+        for (Subscriber watcher : deltaWatchers) {
+            redraw = deliver(watcher, new BinaryMessage(payload.duplicate()), redraw);
+        }
+    }
+
+    /**
+     * applies subscriber's slow consumer policy when its queue is full
+     *
+     * @param subscriber
+     * @param message
+     * @param redraw built at most once per publish, null if not yet
+     * @return redraw
+     */
+    private TextMessage deliver(Subscriber subscriber, WebSocketMessage<?> message, TextMessage redraw) {
+        if (!subscriber.offer(message)) {
+            switch (subscriber.getPolicy()) {
+                case BLOCK:
+                    subscriber.put(message);
+                    break;
+                case DISCONNECT:
+                    subscriber.disconnect();
+                    break;
+                default:
+                    if (redraw == null) {
+                        redraw = toClientString(this.redraw.get());
+                    }
+                    subscriber.resync(redraw, message);
+                    break;
+            }
+        }
+        return redraw;
+    }
+}
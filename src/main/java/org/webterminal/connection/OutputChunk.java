@@ -0,0 +1,153 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import static org.webterminal.connection.Connection.FRAME_HEADROOM;
+import static org.webterminal.constant.Constants.FRAME_DATA;
+import java.util.Arrays;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientString;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.webterminal.util.Utf8StreamDecoder;
+
+/**
+ * one chunk of backend output on its way to users and audit log, decoded and
+ * encoded lazily, at most once no matter how many consumers
+ */
+public class OutputChunk {
+
+    private final Utf8StreamDecoder decoder;
+
+    private byte[] buffer;
+    private int offset;
+    private int length;
+
+    private CharBuffer text;
+    private TextMessage textMessage;
+    private byte[] frame;
+
+    /**
+     *
+     * @param decoder stateful decoder of the stream, null for one-off chunks
+     */
+    public OutputChunk(Utf8StreamDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * one-off chunk, not part of a stream
+     *
+     * @param buffer with Connection.FRAME_HEADROOM in front of offset
+     * @param offset
+     * @param length
+     */
+    public OutputChunk(byte[] buffer, int offset, int length) {
+        this(null);
+        reset(buffer, offset, length);
+    }
+
+    /**
+     * next chunk of the stream, buffer only valid until done()
+     *
+     * @param buffer with Connection.FRAME_HEADROOM in front of offset
+     * @param offset
+     * @param length
+     */
+    public final void reset(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.text = null;
+        this.textMessage = null;
+        this.frame = null;
+    }
+
+    /**
+     * keeps stream decoder aligned when nobody asked for text
+     */
+    public void done() {
+        if (text == null && decoder != null) {
+            decoder.skip(buffer, offset, length);
+        }
+    }
+
+    /**
+     *
+     * @return decoded text, read only, valid until next reset()
+     */
+    public CharBuffer text() {
+        if (text == null) {
+            text = decoder != null
+                    ? decoder.decode(buffer, offset, length)
+                    : StandardCharsets.UTF_8.decode(ByteBuffer.wrap(buffer, offset, length));
+        }
+        return text;
+    }
+
+    /**
+     * new wrapper per call as sending consumes the ByteBuffer, frame is
+     * copied out of the read buffer once, it outlives this chunk in queues
+     *
+     * @return
+     */
+    public BinaryMessage toBinaryMessage() {
+        if (frame == null) {
+            buffer[offset - FRAME_HEADROOM] = FRAME_DATA;
+            frame = Arrays.copyOfRange(buffer, offset - FRAME_HEADROOM, offset + length);
+        }
+        return new BinaryMessage(frame);
+    }
+
+    /**
+     *
+     * @return JSON text message for old clients, encoded once
+     */
+    public TextMessage toTextMessage() {
+        if (textMessage == null) {
+            textMessage = toClientString(text().toString());
+        }
+        return textMessage;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,232 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import static org.webterminal.service.impl.WebTerminalServiceImpl.sendLocked;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientMessage;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+import org.webterminal.util.SessionThreads;
+
+/**
+ * user input into a backend, large pastes cut into chunks with pacing (and
+ * optionally wait for echo) so slow devices like serial console servers
+ * don't drop characters. Keystrokes typed meanwhile queue behind the paste
+ */
+public class PasteWriter implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PasteWriter.class);
+
+    private static final long PROGRESS_MILLIS = 500;
+
+    private static volatile int chunkSize = 1024;
+    private static volatile int pacingMillis = 20;
+    private static volatile int echoTimeoutMillis = 0;
+
+    private final Connection connection;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition echoCondition = lock.newCondition();
+    private final ArrayDeque<byte[]> pending = new ArrayDeque<>();
+    private int pendingOffset;      // into pending.peek()
+    private long total;
+    private long written;
+    private boolean echoed;
+    private volatile boolean active = false;
+
+    /**
+     *
+     * @param size bytes per chunk, input up to this size goes straight through
+     * @param pacing millis between chunks, 0 for none
+     * @param echoTimeout millis to wait for output after a chunk, 0 to not wait
+     */
+    public static void configure(int size, int pacing, int echoTimeout) {
+        chunkSize = Math.max(16, size);
+        pacingMillis = Math.max(0, pacing);
+        echoTimeoutMillis = Math.max(0, echoTimeout);
+    }
+
+    /**
+     *
+     * @param connection
+     */
+    public PasteWriter(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(byte[] data) throws IOException {
+        lock.lock();
+        try {
+            if (!active && data.length <= chunkSize) {
+                // keystrokes, nothing queued ahead
+                connection.send(data);
+                return;
+            }
+
+            pending.add(data);
+            total += data.length;
+            if (!active) {
+                active = true;
+                SessionThreads.execute(connection.getTerminalSessionInfo().getSessionId(), SessionThreads.PASTE, this);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * backend produced output, the echo for the last chunk
+     */
+    public void echoed() {
+        if (active && echoTimeoutMillis > 0) {
+            lock.lock();
+            try {
+                echoed = true;
+                echoCondition.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    @Override
+    public void run() {
+        long lastProgress = System.currentTimeMillis();
+        try {
+            while (true) {
+                byte[] chunk;
+                lock.lock();
+                try {
+                    chunk = nextChunk();
+                    if (chunk == null) {
+                        report("Paste done, " + written + " bytes");
+                        total = 0;
+                        written = 0;
+                        active = false;
+                        return;
+                    }
+                    echoed = false;
+                } finally {
+                    lock.unlock();
+                }
+
+                connection.send(chunk);
+
+                if (echoTimeoutMillis > 0) {
+                    awaitEcho();
+                }
+                if (pacingMillis > 0) {
+                    Thread.sleep(pacingMillis);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= PROGRESS_MILLIS) {
+                    lastProgress = now;
+                    lock.lock();
+                    try {
+                        report("Paste " + (written * 100 / total) + "%, " + written + "/" + total + " bytes");
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("paste into destination exception: {}", ex.getMessage());
+            abort("Paste aborted: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            abort("Paste aborted");
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // under lock
+    private byte[] nextChunk() {
+        byte[] head = pending.peek();
+        if (head == null) {
+            return null;
+        }
+        int length = Math.min(chunkSize, head.length - pendingOffset);
+        byte[] chunk = pendingOffset == 0 && length == head.length
+                ? head
+                : Arrays.copyOfRange(head, pendingOffset, pendingOffset + length);
+        pendingOffset += length;
+        if (pendingOffset == head.length) {
+            pending.poll();
+            pendingOffset = 0;
+        }
+        written += length;
+        return chunk;
+    }
+
+    private void awaitEcho() throws InterruptedException {
+        lock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(echoTimeoutMillis);
+            while (!echoed && nanos > 0) {
+                nanos = echoCondition.awaitNanos(nanos);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void abort(String reason) {
+        lock.lock();
+        try {
+            pending.clear();
+            pendingOffset = 0;
+            report(reason);
+            total = 0;
+            written = 0;
+            active = false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // progress goes to the status line of whoever owns the session now
+    private void report(String message) {
+        WebSocketSession webSocketSession = connection.getWebSocketSession();
+        if (webSocketSession != null && webSocketSession.isOpen()) {
+            try {
+                sendLocked(webSocketSession, toClientMessage(message));
+            } catch (IOException ex) {
+            }
+        }
+    }
+}
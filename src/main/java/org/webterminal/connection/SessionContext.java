@@ -0,0 +1,85 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import static org.webterminal.constant.Constants.SESSION_CONTEXT;
+import java.util.concurrent.atomic.AtomicReference;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * per webSocketSession state, kept as a session attribute so inbound
+ * messages get to their connection without a SessionMAP lookup. The
+ * connection swaps atomically when a TAKE/resume hands the session over
+ */
+public class SessionContext {
+
+    private final String sessionId;
+    private final AtomicReference<Connection> connection = new AtomicReference<>();
+
+    /**
+     *
+     * @param sessionId
+     */
+    public SessionContext(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     *
+     * @param webSocketSession
+     * @return context, null if none attached
+     */
+    public static SessionContext of(WebSocketSession webSocketSession) {
+        return webSocketSession == null ? null : (SessionContext) webSocketSession.getAttributes().get(SESSION_CONTEXT);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     *
+     * @return connection, null before connect and after close
+     */
+    public Connection getConnection() {
+        return connection.get();
+    }
+
+    /**
+     *
+     * @param connection
+     */
+    public void setConnection(Connection connection) {
+        this.connection.set(connection);
+    }
+
+    /**
+     * switch only if still bound to expected, a concurrent swap wins
+     *
+     * @param expected
+     * @param update
+     * @return
+     */
+    public boolean swap(Connection expected, Connection update) {
+        return connection.compareAndSet(expected, update);
+    }
+}
@@ -0,0 +1,314 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import org.webterminal.cluster.ClusterRegistry;
+import org.webterminal.pojo.TerminalSessionInfo;
+import static org.webterminal.constant.Constants.NEW;
+
+/**
+ * all live connections by sessionId, plus secondary indexes by token, web
+ * user, backend host, parent and visibleToAll, so lookups cost O(result)
+ * instead of a scan. Changes are serialized and keep all indexes in step;
+ * reads don't lock. Root connections are published to the cluster registry,
+ * if set, under their token
+ */
+public class SessionRegistry {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Map<String, Connection> bySessionId = new ConcurrentHashMap<>();
+    private final Map<String, Connection> byToken = new ConcurrentHashMap<>();
+    private final Map<String, Set<Connection>> byUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<Connection>> byHost = new ConcurrentHashMap<>();
+    // parent TerminalSessionInfo is the one object that survives a TAKE
+    private final Map<TerminalSessionInfo, Set<Connection>> byParent = new ConcurrentHashMap<>();
+    private final Set<Connection> visibleToAll = ConcurrentHashMap.newKeySet();
+
+    // what each connection is indexed under, its info may change meanwhile
+    private final Map<Connection, Keys> indexed = new ConcurrentHashMap<>();
+
+    private volatile ClusterRegistry clusterRegistry;
+
+    private static final class Keys {
+
+        private final String sessionId;
+        private final String token;
+        private final String user;
+        private final String host;
+        private final TerminalSessionInfo parent;
+        private final boolean visibleToAll;
+        private final boolean root;
+
+        private Keys(String sessionId, TerminalSessionInfo info) {
+            this.sessionId = sessionId;
+            this.token = info.getToken();
+            this.user = info.getWebUserName();
+            this.host = hostKey(info.getHost());
+            this.parent = info.getParent();
+            this.visibleToAll = info.isVisibleToAll();
+            this.root = NEW.equalsIgnoreCase(info.getSessionType());
+        }
+    }
+
+    /**
+     *
+     * @param clusterRegistry
+     */
+    public void setClusterRegistry(ClusterRegistry clusterRegistry) {
+        this.clusterRegistry = clusterRegistry;
+    }
+
+    /**
+     *
+     * @param sessionId
+     * @return
+     */
+    public Connection get(String sessionId) {
+        return sessionId == null ? null : bySessionId.get(sessionId);
+    }
+
+    /**
+     *
+     * @param sessionId
+     * @param connection
+     */
+    public void add(String sessionId, Connection connection) {
+        lock.lock();
+        try {
+            put(sessionId, connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param sessionId
+     * @return removed connection, null if none
+     */
+    public Connection remove(String sessionId) {
+        lock.lock();
+        try {
+            Connection connection = bySessionId.remove(sessionId);
+            if (connection != null) {
+                Keys keys = indexed.get(connection);
+                // a TAKE may have moved it under another sessionId already
+                if (keys != null && sessionId.equals(keys.sessionId)) {
+                    unindex(connection);
+                }
+            }
+            return connection;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * TAKE/resume: connection moves from its old sessionId to the taker's,
+     * with the taker's token and user, in one step
+     *
+     * @param oldSessionId
+     * @param newSessionId
+     * @param connection
+     */
+    public void take(String oldSessionId, String newSessionId, Connection connection) {
+        lock.lock();
+        try {
+            put(newSessionId, connection);
+            bySessionId.remove(oldSessionId, connection);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * index again after host/parent/user of a registered connection changed
+     *
+     * @param connection
+     */
+    public void reindex(Connection connection) {
+        lock.lock();
+        try {
+            Keys keys = indexed.get(connection);
+            if (keys != null) {
+                unindex(connection);
+                index(keys.sessionId, connection);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param token
+     * @return
+     */
+    public Connection byToken(String token) {
+        return token == null ? null : byToken.get(token);
+    }
+
+    /**
+     *
+     * @param token
+     * @return root level connection
+     */
+    public Connection rootByToken(String token) {
+        Connection connection = byToken(token);
+        while (connection != null
+                && !connection.getTerminalSessionInfo().getSessionType().equalsIgnoreCase(NEW)
+                && connection.getTerminalSessionInfo().getParentToken() != null) {
+            connection = byToken(connection.getTerminalSessionInfo().getParentToken());
+        }
+        return connection;
+    }
+
+    /**
+     *
+     * @param webUserName
+     * @return
+     */
+    public Collection<Connection> byUser(String webUserName) {
+        return view(webUserName == null ? null : byUser.get(webUserName));
+    }
+
+    /**
+     *
+     * @param host
+     * @return connections to host, any port, JOIN/WATCH included
+     */
+    public Collection<Connection> byHost(String host) {
+        return view(host == null ? null : byHost.get(hostKey(host)));
+    }
+
+    /**
+     *
+     * @param parent
+     * @return JOIN/WATCH connections attached to parent
+     */
+    public Collection<Connection> children(Connection parent) {
+        return view(parent == null ? null : byParent.get(parent.getTerminalSessionInfo()));
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Collection<Connection> visibleToAll() {
+        return Collections.unmodifiableSet(visibleToAll);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Collection<Connection> all() {
+        return Collections.unmodifiableCollection(bySessionId.values());
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int size() {
+        return bySessionId.size();
+    }
+
+    // under lock
+    private void put(String sessionId, Connection connection) {
+        Connection previous = bySessionId.put(sessionId, connection);
+        if (previous != null && previous != connection) {
+            Keys keys = indexed.get(previous);
+            if (keys != null && sessionId.equals(keys.sessionId)) {
+                unindex(previous);
+            }
+        }
+        unindex(connection);
+        index(sessionId, connection);
+    }
+
+    // under lock
+    private void index(String sessionId, Connection connection) {
+        Keys keys = new Keys(sessionId, connection.getTerminalSessionInfo());
+        indexed.put(connection, keys);
+        if (keys.token != null) {
+            byToken.put(keys.token, connection);
+            if (keys.root && clusterRegistry != null) {
+                clusterRegistry.publish(keys.token, connection.getTerminalSessionInfo());
+            }
+        }
+        add(byUser, keys.user, connection);
+        add(byHost, keys.host, connection);
+        add(byParent, keys.parent, connection);
+        if (keys.visibleToAll) {
+            visibleToAll.add(connection);
+        }
+    }
+
+    // under lock
+    private void unindex(Connection connection) {
+        Keys keys = indexed.remove(connection);
+        if (keys != null) {
+            if (keys.token != null) {
+                byToken.remove(keys.token, connection);
+                if (keys.root && clusterRegistry != null) {
+                    clusterRegistry.unpublish(keys.token);
+                }
+            }
+            remove(byUser, keys.user, connection);
+            remove(byHost, keys.host, connection);
+            remove(byParent, keys.parent, connection);
+            visibleToAll.remove(connection);
+        }
+    }
+
+    private static <K> void add(Map<K, Set<Connection>> index, K key, Connection connection) {
+        if (key != null) {
+            index.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(connection);
+        }
+    }
+
+    private static <K> void remove(Map<K, Set<Connection>> index, K key, Connection connection) {
+        if (key != null) {
+            index.computeIfPresent(key, (k, set) -> {
+                set.remove(connection);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+
+    private static Collection<Connection> view(Set<Connection> set) {
+        if (set == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(set);
+    }
+
+    private static String hostKey(String host) {
+        return host == null ? null : host.toLowerCase(Locale.ROOT);
+    }
+}
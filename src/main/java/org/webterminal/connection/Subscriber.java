@@ -0,0 +1,336 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import static org.webterminal.service.impl.WebTerminalServiceImpl.isBinaryProtocol;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.sendLocked;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.util.SessionThreads;
+import static org.webterminal.constant.Constants.NEW;
+
+/**
+ * one webSocketSession receiving output, through a bounded queue drained by
+ * its own writer so a slow browser never holds up the backend reader or
+ * other watchers
+ */
+public class Subscriber implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(Subscriber.class);
+
+    private static volatile int queueSize = 256;
+    private static volatile SlowConsumerPolicy ownerPolicy = SlowConsumerPolicy.BLOCK;
+    private static volatile SlowConsumerPolicy watcherPolicy = SlowConsumerPolicy.RESYNC;
+
+    private final WebSocketSession webSocketSession;
+    private final TerminalSessionInfo terminalSessionInfo;
+    private final boolean binary;
+    private final SlowConsumerPolicy policy;
+
+    private final BlockingQueue<WebSocketMessage<?>> queue;
+    // every publisher adds under it (reader, delta ticker, messages, replays),
+    // so a resync's clear and refill is atomic; the writer only polls
+    private final ReentrantLock publishLock = new ReentrantLock();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private volatile boolean closing = false;
+    private volatile boolean closed = false;
+
+    // metrics
+    private volatile int maxDepth = 0;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong resyncs = new AtomicLong();
+
+    /**
+     * applies to subscribers created from now on
+     *
+     * @param size
+     * @param owner
+     * @param watcher BLOCK not allowed, becomes RESYNC
+     */
+    public static void configure(int size, SlowConsumerPolicy owner, SlowConsumerPolicy watcher) {
+        queueSize = Math.max(16, size);
+        ownerPolicy = owner;
+        if (watcher == SlowConsumerPolicy.BLOCK) {
+            logger.warn("slow watcher can't block the session, using {}", SlowConsumerPolicy.RESYNC);
+            watcher = SlowConsumerPolicy.RESYNC;
+        }
+        watcherPolicy = watcher;
+    }
+
+    /**
+     *
+     * @param webSocketSession
+     * @param terminalSessionInfo of the connection this session belongs to
+     */
+    public Subscriber(WebSocketSession webSocketSession, TerminalSessionInfo terminalSessionInfo) {
+        this.webSocketSession = webSocketSession;
+        this.terminalSessionInfo = terminalSessionInfo;
+        this.binary = isBinaryProtocol(webSocketSession);
+        // JOIN/WATCH sessions only ever watch, TAKE ends up owner of a NEW one
+        this.policy = NEW.equals(terminalSessionInfo.getSessionType()) ? ownerPolicy : watcherPolicy;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public SlowConsumerPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * over half full, sources that can pause reading should
+     *
+     * @return
+     */
+    public boolean isBacklogged() {
+        return queue.size() * 2 >= getQueueCapacity();
+    }
+
+    /**
+     * queue without waiting
+     *
+     * @param message
+     * @return false if queue is full
+     */
+    public boolean offer(WebSocketMessage<?> message) {
+        publishLock.lock();
+        try {
+            if (closing) {
+                return true;
+            }
+            if (!queue.offer(message)) {
+                return false;
+            }
+            queued();
+            return true;
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * queue, waiting for room while session is still up
+     *
+     * @param message
+     */
+    public void put(WebSocketMessage<?> message) {
+        // other publishers wait meanwhile, their messages stay in order
+        publishLock.lock();
+        try {
+            while (!closing && webSocketSession.isOpen()) {
+                if (queue.offer(message, 1, TimeUnit.SECONDS)) {
+                    queued();
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            publishLock.unlock();
+        }
+        dropped.incrementAndGet();
+    }
+
+    /**
+     * drop everything queued, replace with a redraw and the latest message
+     *
+     * @param redraw
+     * @param message null if redraw already covers it
+     */
+    public void resync(WebSocketMessage<?> redraw, WebSocketMessage<?> message) {
+        publishLock.lock();
+        try {
+            if (closing) {
+                return;
+            }
+            // writer may have made room since the caller's offer failed
+            if (queue.offer(message != null ? message : redraw)) {
+                queued();
+                return;
+            }
+            dropped.addAndGet(queue.size() + (message != null ? 1 : 0));
+            queue.clear();
+            resyncs.incrementAndGet();
+            logger.debug("outbound queue full, resync {}", terminalSessionInfo.getSessionId());
+            // nobody else adds while publishLock is held, room for both now
+            queue.offer(redraw);
+            if (message != null) {
+                queue.offer(message);
+            }
+            queued();
+        } finally {
+            publishLock.unlock();
+        }
+    }
+
+    /**
+     * give up on a session that can't keep up
+     */
+    public void disconnect() {
+        logger.info("outbound queue full, disconnecting {}", terminalSessionInfo.getSessionId());
+        publishLock.lock();
+        try {
+            dropped.addAndGet(queue.size() + 1);
+            closing = true;
+            queue.clear();
+        } finally {
+            publishLock.unlock();
+        }
+        closeSession(CloseStatus.SESSION_NOT_RELIABLE);
+    }
+
+    /**
+     * close session once queued messages are out
+     */
+    public void closeAfterFlush() {
+        closing = true;
+        schedule();
+    }
+
+    private void queued() {
+        int depth = queue.size();
+        if (depth > maxDepth) {
+            maxDepth = depth;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            // writers only run while there is something queued
+            SessionThreads.execute(terminalSessionInfo.getSessionId(), SessionThreads.WRITER, this);
+        }
+    }
+
+    /**
+     * writer, drains queue then goes away
+     */
+    @Override
+    public void run() {
+        do {
+            WebSocketMessage<?> message;
+            while ((message = queue.poll()) != null) {
+                try {
+                    sendLocked(webSocketSession, message);
+                    sent.incrementAndGet();
+                    terminalSessionInfo.setTrafficTimeNow();
+                } catch (IOException | IllegalStateException ex) {
+                    logger.debug("outbound send exception: {}", ex.getMessage());
+                    dropped.addAndGet(queue.size() + 1);
+                    closing = true;
+                    queue.clear();
+                }
+            }
+            if (closing) {
+                closeSession(CloseStatus.NORMAL);
+            }
+            scheduled.set(false);
+            // something may have been queued after the last poll
+        } while (!queue.isEmpty() && scheduled.compareAndSet(false, true));
+    }
+
+    private void closeSession(CloseStatus status) {
+        if (!closed) {
+            closed = true;
+            if (webSocketSession.isOpen()) {
+                try {
+                    webSocketSession.close(status);
+                } catch (IOException ex) {
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public WebSocketSession getWebSocketSession() {
+        return webSocketSession;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getQueueCapacity() {
+        return queue.size() + queue.remainingCapacity();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMaxQueueDepth() {
+        return maxDepth;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getResyncs() {
+        return resyncs.get();
+    }
+}
@@ -18,13 +18,16 @@
 package org.webterminal.connection.impl;
 
 import org.webterminal.connection.Connection;
+import org.webterminal.connection.SessionContext;
+import org.webterminal.connection.Subscriber;
 import static org.webterminal.constant.Constants.JOIN;
+import static org.webterminal.constant.Constants.DELTA;
 import static org.webterminal.constant.Constants.TAKE;
 import static org.webterminal.constant.Constants.WATCH;
 import org.webterminal.pojo.RowsCols;
 import org.webterminal.pojo.TerminalSessionInfo;
 import org.webterminal.util.AuditLogging;
-import static org.webterminal.service.impl.WebTerminalServiceImpl.addToSessionMap;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.getSessionRegistry;
 import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientString;
 import static org.webterminal.service.impl.WebTerminalServiceImpl.tokenToRootConnection;
 import java.io.IOException;
@@ -76,6 +79,7 @@ public class JoinConnection extends Connection {
                 parentConnection.sendToUser(toClientString("\r\nSession taken by " + terminalSessionInfo.getWebUserName() + "\r\n"));
 
                 WebSocketSession parentWss = parentConnection.getWebSocketSession();
+                Subscriber displaced = parentConnection.getOutputBroadcast().getOwner();
                 String parentSessionId = parentConnection.getTerminalSessionInfo().getSessionId();
 
                 // switch in wss, token, sessionId into parentTerminalSessionInfo
@@ -90,28 +94,33 @@ public class JoinConnection extends Connection {
                 parentConnection.getTerminalSessionInfo().setWebUserName(terminalSessionInfo.getWebUserName());
                 parentConnection.getTerminalSessionInfo().setWebUserRole(terminalSessionInfo.getWebUserRole());
 
-                // switch in connection
-                addToSessionMap(terminalSessionInfo.getSessionId(), parentConnection);
-                // remove original parent connection mapping
-                removeFromSessionMap(parentSessionId);
+                // switch in connection, drop original parent connection mapping
+                getSessionRegistry().take(parentSessionId, terminalSessionInfo.getSessionId(), parentConnection);
+                SessionContext.of(webSocketSession).swap(this, parentConnection);
+                SessionContext parentContext = SessionContext.of(parentWss);
+                if (parentContext != null) {
+                    parentContext.swap(parentConnection, null);
+                }
 
                 parentConnection.resize(new RowsCols(terminalSessionInfo.getRows(), terminalSessionInfo.getCols()));
 
-                // only disconnect/close parentWss after above setup done
-                if (parentWss != null && parentWss.isOpen()) {
-                    try {
-                        parentWss.close();
-                    } catch (IOException ex) {
-                    }
+                // only disconnect/close parentWss after above setup done,
+                // once its queue is out so "Session taken by" gets there
+                if (displaced != null) {
+                    displaced.closeAfterFlush();
                 }
 
                 parentConnection.getTerminalSessionInfo().setReady(true);
 
-                parentConnection.sendToUser(parentConnection.getBufferedData());
+                // current screen, not a byte tail that may start mid escape sequence
+                parentConnection.replayTo(parentConnection.getOutputBroadcast().getOwner());
             } else {
                 terminalSessionInfo.setParent(parentTerminalSessionInfo);
                 logger.debug("join to parent {}", parentTerminalSessionInfo);
 
+                // now findable by host and parent
+                getSessionRegistry().reindex(this);
+
                 // inform parentTerminalSessionInfo
                 parentTerminalSessionInfo.addChild(terminalSessionInfo.getSessionId());
 
@@ -124,9 +133,16 @@ public class JoinConnection extends Connection {
                     sendToUser("Join Session ready\r\n");
                 } else if (terminalSessionInfo.getSessionType().equals(WATCH)) {
                     sendToUser("ReadOnly Session attached\r\n");
+                } else if (terminalSessionInfo.getSessionType().equals(DELTA)) {
+                    sendToUser("ReadOnly Session attached (screen updates)\r\n");
                 }
 
-                sendToUser(parentConnection.getBufferedData());
+                // current screen, then its output (or screen deltas) from now on
+                if (terminalSessionInfo.getSessionType().equals(DELTA)) {
+                    parentConnection.attachDelta(outputBroadcast.getOwner());
+                } else {
+                    parentConnection.attach(outputBroadcast.getOwner());
+                }
             }
 
             logger.debug("child session connected {}", terminalSessionInfo);
@@ -147,10 +163,10 @@ public class JoinConnection extends Connection {
      * @throws IOException
      */
     @Override
-    public void send(String data) throws IOException {
+    public void send(byte[] data) throws IOException {
         // only if JOIN
         if (terminalSessionInfo.getSessionType().equals(JOIN) && parentConnection != null) {
-            parentConnection.send(data);
+            parentConnection.input(data);
         } else {
             logger.debug("user input ignored when session is WATCH only");
         }
@@ -165,18 +181,24 @@ public class JoinConnection extends Connection {
      *
      */
     @Override
-    public synchronized void close() {
-        logger.debug("join close() {}", terminalSessionInfo);
+    public void close() {
+        closeLock.lock();
+        try {
+            logger.debug("join close() {}", terminalSessionInfo);
 
-        auditLogging.logClose(terminalSessionInfo);
+            auditLogging.logClose(terminalSessionInfo);
 
-        if (parentConnection != null) {
-            parentConnection.getTerminalSessionInfo().removeChild(terminalSessionInfo.getSessionId());
-        }
-        removeFromSessionMap(terminalSessionInfo.getSessionId());
+            if (parentConnection != null) {
+                parentConnection.getOutputBroadcast().unsubscribe(outputBroadcast.getOwner());
+                parentConnection.getTerminalSessionInfo().removeChild(terminalSessionInfo.getSessionId());
+            }
+            removeFromSessionMap(terminalSessionInfo.getSessionId());
 
-        // update everyone who is still on
-        updateParticipantMessage(parentConnection);
+            // update everyone who is still on
+            updateParticipantMessage(parentConnection);
+        } finally {
+            closeLock.unlock();
+        }
     }
 
     /**
@@ -0,0 +1,438 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.impl;
+
+import org.webterminal.connection.Connection;
+import org.webterminal.connection.OutputChunk;
+import org.webterminal.connection.Subscriber;
+import org.webterminal.connection.nio.ChannelHandler;
+import org.webterminal.connection.nio.TelnetCodec;
+import org.webterminal.connection.nio.TelnetEventLoop;
+import org.webterminal.connection.nio.TelnetEventLoopGroup;
+import static org.webterminal.constant.Constants.LF;
+import static org.webterminal.constant.Constants.LOGIN_PROMPTS;
+import static org.webterminal.constant.Constants.PASSWORD_PROMPTS;
+import org.webterminal.pojo.RowsCols;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.util.AuditLogging;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.connectionClose;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.sendResizeToChildren;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.sendRootCauseMessage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * telnet on a shared selector thread instead of a thread per session, same
+ * behavior as TelnetConnection otherwise
+ */
+public class NioTelnetConnection extends Connection implements ChannelHandler {
+
+    private static final Logger logger = LoggerFactory.getLogger(NioTelnetConnection.class);
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int LOGIN_TIMEOUT_MILLIS = 6000;
+    private static final int BACKLOG_RETRY_MILLIS = 20;
+
+    // login steps
+    private static final int LOGIN_NONE = 0;
+    private static final int LOGIN_USER = 1;
+    private static final int LOGIN_PASSWORD = 2;
+
+    private final TelnetEventLoopGroup group;
+    private final TelnetEventLoop loop;
+    private final TelnetCodec codec;
+
+    private SocketChannel channel;
+    private SelectionKey key;
+    private volatile boolean connected = false;
+    private volatile boolean closed = false;
+    private ScheduledFuture<?> timeout;
+
+    // writes from any thread, leftovers flushed by loop
+    private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<>();
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    // loop thread only
+    private final OutputChunk chunk = new OutputChunk(outputDecoder);
+    private int loginStep = LOGIN_NONE;
+    private final StringBuilder promptText = new StringBuilder();
+
+    /**
+     *
+     * @param webSocketSession
+     * @param terminalSessionInfo
+     * @param auditLogging
+     * @param group
+     */
+    public NioTelnetConnection(WebSocketSession webSocketSession, TerminalSessionInfo terminalSessionInfo,
+            AuditLogging auditLogging, TelnetEventLoopGroup group) {
+        super(webSocketSession, terminalSessionInfo, auditLogging);
+
+        logger.debug("cstor nio telnet Connection to: {}", terminalSessionInfo);
+
+        this.group = group;
+        this.loop = group.next();
+        this.codec = new TelnetCodec("xterm", terminalSessionInfo.getCols(), terminalSessionInfo.getRows());
+    }
+
+    /**
+     * only starts connecting, rest happens on the event loop
+     *
+     * @throws IOException
+     */
+    @Override
+    public void connect() throws IOException {
+        logger.debug("nio telnet to {}:{}", terminalSessionInfo.getHost(), terminalSessionInfo.getPort());
+
+        // resolve here, not on the loop
+        InetSocketAddress address = new InetSocketAddress(terminalSessionInfo.getHost(), terminalSessionInfo.getPort());
+        if (address.isUnresolved()) {
+            throw new IOException("unknown host: " + terminalSessionInfo.getHost());
+        }
+
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+        loop.execute(() -> {
+            try {
+                key = loop.register(channel, SelectionKey.OP_CONNECT, this);
+                if (channel.connect(address)) {
+                    onConnectable();
+                }
+            } catch (IOException ex) {
+                onFailure(ex);
+            }
+        });
+        timeout = group.schedule(loop, () -> {
+            if (!connected) {
+                onFailure(new IOException("connect timed out"));
+            }
+        }, CONNECT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Override
+    public void onConnectable() throws IOException {
+        if (!channel.finishConnect()) {
+            return;
+        }
+        connected = true;
+        timeout.cancel(false);
+        key.interestOps(SelectionKey.OP_READ);
+        logger.debug("nio telnet connection established");
+
+        codec.start();
+        flushReplies();
+
+        // auto login iff both set:  terminalSessionInfo.getUsername() / terminalSessionInfo.getPassword()
+        if (StringUtils.isNotBlank(terminalSessionInfo.getUsername()) && StringUtils.isNotBlank(terminalSessionInfo.getPassword())) {
+            logger.debug("attempt auto login for {}", terminalSessionInfo);
+            expectPrompt(LOGIN_USER);
+        } else {
+            onBackendReady();
+        }
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Override
+    public void onReadable() throws IOException {
+        ByteBuffer byteBuffer = loop.getReadByteBuffer();
+        int start = byteBuffer.position();
+        int n;
+        while ((n = channel.read(byteBuffer)) > 0 && byteBuffer.hasRemaining()) {
+            // whatever is already there goes in the same chunk
+        }
+        int length = codec.decode(loop.getReadBuffer(), start, byteBuffer.position() - start);
+        flushReplies();
+
+        if (length > 0) {
+            if (loginStep != LOGIN_NONE) {
+                matchPrompt(loop.getReadBuffer(), start, length);
+            } else {
+                chunk.reset(loop.getReadBuffer(), start, length);
+                onBackendOutput(chunk);
+            }
+        }
+
+        if (n == -1) {
+            if (loginStep != LOGIN_NONE) {
+                loginFailed("EOF or IOException Encountered");
+            } else {
+                onBackendClosed();
+            }
+        } else {
+            holdIfBacklogged();
+        }
+    }
+
+    /**
+     *
+     * @throws IOException
+     */
+    @Override
+    public void onWritable() throws IOException {
+        writeLock.lock();
+        try {
+            while (!pendingWrites.isEmpty()) {
+                ByteBuffer buffer = pendingWrites.peek();
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                pendingWrites.poll();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    /**
+     *
+     * @param ex
+     */
+    @Override
+    public void onFailure(Exception ex) {
+        if (!closed) {
+            logger.debug("nio telnet exception: {}", ex.getMessage());
+
+            sendRootCauseMessage(this, ex);
+            connectionClose(this);
+        }
+    }
+
+    /**
+     *
+     * @param data
+     * @throws IOException
+     */
+    @Override
+    public void send(byte[] data) throws IOException {
+        if (isAlive()) {
+            write(TelnetCodec.encode(data));
+
+            terminalSessionInfo.setTrafficTimeNow();
+        } else {
+            throw new IOException("no valid backend connection");
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public boolean isAlive() {
+        return connected && !closed && channel.isOpen();
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close() {
+        closeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            auditLogging.logClose(terminalSessionInfo);
+
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (channel != null) {
+                try {
+                    // also cancels key
+                    channel.close();
+                } catch (IOException ex) {
+                }
+            }
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param rowsCols
+     */
+    @Override
+    public void resize(RowsCols rowsCols) {
+        if (rowsCols.getRows() != terminalSessionInfo.getRows()
+                || rowsCols.getCols() != terminalSessionInfo.getCols()) {
+            logger.debug("nio telnet resize {}", rowsCols);
+
+            loop.execute(() -> {
+                codec.resize(rowsCols.getCols(), rowsCols.getRows());
+                try {
+                    flushReplies();
+                } catch (IOException ex) {
+                    logger.debug("resize ex: {}", ex);
+                }
+            });
+
+            resizeScreen(rowsCols);
+            terminalSessionInfo.setRows(rowsCols.getRows());
+            terminalSessionInfo.setCols(rowsCols.getCols());
+
+            // update children's terminal size on their UI
+            sendResizeToChildren(terminalSessionInfo.getChildren(),
+                    rowsCols.getRows(), rowsCols.getCols());
+        }
+    }
+
+    /**
+     * write what can go out now, rest once channel is writable again
+     *
+     * @param data
+     * @throws IOException
+     */
+    private void write(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        writeLock.lock();
+        try {
+            if (pendingWrites.isEmpty()) {
+                channel.write(buffer);
+                if (!buffer.hasRemaining()) {
+                    return;
+                }
+            }
+            pendingWrites.add(buffer);
+        } finally {
+            writeLock.unlock();
+        }
+        loop.execute(() -> {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    private void flushReplies() throws IOException {
+        if (codec.hasReplies()) {
+            write(codec.takeReplies());
+        }
+    }
+
+    /**
+     * stop reading while owner can't keep up, backend sees TCP backpressure
+     */
+    private void holdIfBacklogged() {
+        Subscriber owner = outputBroadcast.getOwner();
+        if (owner != null && owner.isBacklogged() && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            group.schedule(loop, this::resumeReading, BACKLOG_RETRY_MILLIS);
+        }
+    }
+
+    private void resumeReading() {
+        if (!key.isValid()) {
+            return;
+        }
+        Subscriber owner = outputBroadcast.getOwner();
+        if (owner != null && owner.isBacklogged()) {
+            group.schedule(loop, this::resumeReading, BACKLOG_RETRY_MILLIS);
+        } else {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    private void expectPrompt(int step) {
+        loginStep = step;
+        promptText.setLength(0);
+        timeout = group.schedule(loop, () -> {
+            if (loginStep == step && !closed) {
+                loginFailed("Timeout");
+            }
+        }, LOGIN_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * output during auto login is matched against prompts, not shown
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    private void matchPrompt(byte[] buffer, int offset, int length) throws IOException {
+        String[] prompts = loginStep == LOGIN_USER ? LOGIN_PROMPTS : PASSWORD_PROMPTS;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            char ch = (char) (buffer[i] & 0xff);
+            promptText.append(ch);
+            // all patterns happen to end with a space
+            if (ch != ' ') {
+                continue;
+            }
+            String text = promptText.toString().toLowerCase();
+            for (String pattern : prompts) {
+                if (text.endsWith(pattern)) {
+                    logger.debug("prompt matched [{}]", text);
+                    timeout.cancel(false);
+                    if (loginStep == LOGIN_USER) {
+                        send(terminalSessionInfo.getUsername() + LF);
+                        expectPrompt(LOGIN_PASSWORD);
+                        matchPrompt(buffer, i + 1, end - i - 1);
+                    } else {
+                        send(terminalSessionInfo.getPassword() + LF);
+                        loginStep = LOGIN_NONE;
+                        logger.debug("finished auto login sequence for {}", terminalSessionInfo);
+                        onBackendReady();
+                        if (i + 1 < end) {
+                            chunk.reset(buffer, i + 1, end - i - 1);
+                            onBackendOutput(chunk);
+                        }
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    private void loginFailed(String reason) {
+        loginStep = LOGIN_NONE;
+        try {
+            sendToUser("Auto Login Failed: " + reason);
+        } catch (IOException ex) {
+        }
+        connectionClose(this);
+    }
+}
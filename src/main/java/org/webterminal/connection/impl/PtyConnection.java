@@ -39,7 +39,6 @@ import org.springframework.web.socket.WebSocketSession;
 import org.webterminal.util.AuditLogging;
 import static org.webterminal.service.impl.WebTerminalServiceImpl.sendResizeToChildren;
 import com.pty4j.WinSize;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -213,10 +212,10 @@ public class PtyConnection extends Connection {
      * @throws IOException
      */
     @Override
-    public void send(String command) throws IOException {
+    public void send(byte[] command) throws IOException {
         if (isAlive()) {
             OutputStream outputStream = ptyProcess.getOutputStream();
-            outputStream.write(command.getBytes(StandardCharsets.UTF_8));
+            outputStream.write(command);
             outputStream.flush();
 
             terminalSessionInfo.setTrafficTimeNow();
@@ -238,27 +237,32 @@ public class PtyConnection extends Connection {
      *
      */
     @Override
-    public synchronized void close() {
-        auditLogging.logClose(terminalSessionInfo);
+    public void close() {
+        closeLock.lock();
+        try {
+            auditLogging.logClose(terminalSessionInfo);
 
-        if (ptyProcess != null && ptyProcess.isAlive()) {
-            try {
-                if (ptyProcess.getInputStream() != null) {
-                    ptyProcess.getInputStream().close();
-                }
-                if (ptyProcess.getOutputStream() != null) {
-                    ptyProcess.getOutputStream().close();
-                }
+            if (ptyProcess != null && ptyProcess.isAlive()) {
+                try {
+                    if (ptyProcess.getInputStream() != null) {
+                        ptyProcess.getInputStream().close();
+                    }
+                    if (ptyProcess.getOutputStream() != null) {
+                        ptyProcess.getOutputStream().close();
+                    }
 
-                logger.debug("Pty close for {}", terminalSessionInfo);
-                ptyProcess.destroyForcibly();
-                ptyProcess.waitFor();
+                    logger.debug("Pty close for {}", terminalSessionInfo);
+                    ptyProcess.destroyForcibly();
+                    ptyProcess.waitFor();
 
-                logger.debug("after Pty close");
+                    logger.debug("after Pty close");
 
-            } catch (InterruptedException | IOException ex) {
-                logger.debug("Pty close exception {}", ex);
+                } catch (InterruptedException | IOException ex) {
+                    logger.debug("Pty close exception {}", ex);
+                }
             }
+        } finally {
+            closeLock.unlock();
         }
     }
 
@@ -275,6 +279,7 @@ public class PtyConnection extends Connection {
             WinSize ws = new WinSize(rowsCols.getCols(), rowsCols.getRows());
             ptyProcess.setWinSize(ws);
 
+            resizeScreen(rowsCols);
             terminalSessionInfo.setRows(rowsCols.getRows());
             terminalSessionInfo.setCols(rowsCols.getCols());
 
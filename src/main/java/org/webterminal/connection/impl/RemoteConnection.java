@@ -0,0 +1,199 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketHttpHeaders;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.client.standard.StandardWebSocketClient;
+import org.springframework.web.socket.handler.AbstractWebSocketHandler;
+import org.webterminal.connection.Connection;
+import org.webterminal.pojo.RowsCols;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.pojo.TwoWayMessage;
+import org.webterminal.util.AuditLogging;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.connectionClose;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.sendLocked;
+import static org.webterminal.constant.Constants.CLIENT_DATA;
+
+/**
+ * JOIN/WATCH/TAKE whose root connection lives on another node: the user's
+ * websocket is relayed, frames untouched both ways, to that node's
+ * /webterminal, which sees an ordinary client connecting with the same
+ * (signed) token
+ */
+public class RemoteConnection extends Connection {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteConnection.class);
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final StandardWebSocketClient client = new StandardWebSocketClient();
+    private static final long CONNECT_TIMEOUT_SECONDS = 10;
+
+    private final String nodeUrl;
+    private final String connectMessage;
+    private final ReentrantLock upstreamLock = new ReentrantLock();
+    private volatile WebSocketSession upstream;
+    private volatile boolean closing;
+
+    /**
+     *
+     * @param webSocketSession
+     * @param terminalSessionInfo
+     * @param auditLogging
+     * @param nodeUrl owner node's websocket URL
+     * @param connectMessage user's connect message, passed on as is
+     */
+    public RemoteConnection(WebSocketSession webSocketSession, TerminalSessionInfo terminalSessionInfo,
+            AuditLogging auditLogging, String nodeUrl, String connectMessage) {
+        super(webSocketSession, terminalSessionInfo, auditLogging);
+
+        logger.debug("cstor Remote connection to {}: {}", nodeUrl, terminalSessionInfo);
+
+        this.nodeUrl = nodeUrl;
+        this.connectMessage = connectMessage;
+    }
+
+    /**
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Override
+    public void connect() throws IOException, InterruptedException {
+        try {
+            upstream = client.execute(new Relay(), new WebSocketHttpHeaders(), URI.create(nodeUrl))
+                    .get(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException ex) {
+            throw new IOException("owner node " + nodeUrl + " not reachable", ex);
+        }
+
+        relay(new TextMessage(connectMessage));
+        terminalSessionInfo.setReady(true);
+
+        logger.debug("relaying to {}: {}", nodeUrl, terminalSessionInfo);
+    }
+
+    /**
+     * user's message on to the owner node
+     *
+     * @param message
+     * @throws IOException
+     */
+    public void relay(WebSocketMessage<?> message) throws IOException {
+        WebSocketSession session = upstream;
+        if (session == null || !session.isOpen()) {
+            logger.debug("relay dropped, upstream not open: {}", terminalSessionInfo);
+            return;
+        }
+
+        upstreamLock.lock();
+        try {
+            session.sendMessage(message);
+        } finally {
+            upstreamLock.unlock();
+        }
+    }
+
+    /**
+     * only when not relaying raw frames, as JSON data message
+     *
+     * @param data
+     * @throws IOException
+     */
+    @Override
+    public void send(byte[] data) throws IOException {
+        relay(new TextMessage(objectMapper.writeValueAsString(
+                new TwoWayMessage(CLIENT_DATA, new String(data, StandardCharsets.UTF_8)))));
+    }
+
+    @Override
+    public boolean isAlive() {
+        WebSocketSession session = upstream;
+        return session != null && session.isOpen();
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close() {
+        closeLock.lock();
+        try {
+            logger.debug("remote close() {}", terminalSessionInfo);
+
+            closing = true;
+            auditLogging.logClose(terminalSessionInfo);
+
+            WebSocketSession session = upstream;
+            if (session != null && session.isOpen()) {
+                try {
+                    session.close(CloseStatus.NORMAL);
+                } catch (IOException ex) {
+                }
+            }
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    /**
+     * the owner node takes care of it
+     *
+     * @param rowsCols
+     */
+    @Override
+    public void resize(RowsCols rowsCols) {
+        logger.debug("ignore remote resize {}", rowsCols);
+    }
+
+    private final class Relay extends AbstractWebSocketHandler {
+
+        @Override
+        protected void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
+            sendLocked(webSocketSession, message);
+        }
+
+        @Override
+        protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) throws Exception {
+            sendLocked(webSocketSession, message);
+        }
+
+        @Override
+        public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+            logger.debug("upstream closed {}: {}", status, terminalSessionInfo);
+
+            if (!closing) {
+                connectionClose(RemoteConnection.this);
+            }
+        }
+    }
+}
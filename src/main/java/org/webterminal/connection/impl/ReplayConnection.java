@@ -0,0 +1,349 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.impl;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketSession;
+import org.webterminal.connection.Connection;
+import org.webterminal.connection.OutputChunk;
+import org.webterminal.pojo.ReplayControl;
+import org.webterminal.pojo.RowsCols;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.screen.ScreenModel;
+import org.webterminal.util.AuditLogging;
+import org.webterminal.util.SessionRecording;
+import org.webterminal.util.Utf8StreamDecoder;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.removeFromSessionMap;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientMessage;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.toClientRowCol;
+
+/**
+ * plays a session recording to the user, paced by its timestamps. Reads
+ * event by event through a fixed buffer, so memory use doesn't depend on
+ * the recording's size. A seek runs everything before the target through a
+ * screen model, from the start so modes set long before still apply, and
+ * sends its snapshot
+ */
+public class ReplayConnection extends Connection {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplayConnection.class);
+
+    /**
+     *
+     */
+    public static final int MAX_SPEED = 50;
+
+    // status line at most this often while playing, and end of file poll
+    private static final long STATUS_MILLIS = 1000;
+
+    private final Path recording;
+    private final int scrollback;
+    private RowsCols startSize;
+
+    private final ReentrantLock controlLock = new ReentrantLock();
+    private final Condition changed = controlLock.newCondition();
+
+    // guarded by controlLock
+    private boolean playing = true;
+    private int speed = 1;
+    private long seekTo = -1;
+    private int changes;
+
+    private volatile boolean closed;
+
+    /**
+     *
+     * @param webSocketSession
+     * @param terminalSessionInfo
+     * @param auditLogging
+     * @param recording
+     * @param scrollback lines kept above the screen rebuilt on a seek
+     */
+    public ReplayConnection(WebSocketSession webSocketSession, TerminalSessionInfo terminalSessionInfo,
+            AuditLogging auditLogging, Path recording, int scrollback) {
+        super(webSocketSession, terminalSessionInfo, auditLogging);
+        this.recording = recording;
+        this.scrollback = scrollback;
+
+        logger.debug("cstor Replay connection: {}", terminalSessionInfo);
+    }
+
+    /**
+     * plays until closed, on the connect thread
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @Override
+    public void connect() throws IOException, InterruptedException {
+        try (SessionRecording.Reader reader = new SessionRecording.Reader(recording)) {
+            startSize = new RowsCols(reader.getHeader("rows", terminalSessionInfo.getRows()),
+                    reader.getHeader("cols", terminalSessionInfo.getCols()));
+            sendToUser(toClientRowCol(startSize.getRows(), startSize.getCols()));
+            sendToUser("Replay of " + reader.getHeader("session") + " started " + reader.getHeader("started") + "\r\n");
+            terminalSessionInfo.setReady(true);
+
+            play(reader);
+        }
+        logger.debug("replay ended {}", terminalSessionInfo);
+    }
+
+    private void play(SessionRecording.Reader reader) throws IOException, InterruptedException {
+        // event copied in behind the frame type headroom, as backend reads are
+        byte[] frame = null;
+        OutputChunk chunk = new OutputChunk(outputDecoder);
+
+        SessionRecording.Event event = null;
+        long position = 0;
+        long statusAt = 0;
+        int statusChanges = -1;
+        boolean atEnd = false;
+
+        while (!closed) {
+            long target;
+            boolean play;
+            int pace;
+            int seen;
+            controlLock.lock();
+            try {
+                target = seekTo;
+                seekTo = -1;
+                play = playing;
+                pace = speed;
+                seen = changes;
+            } finally {
+                controlLock.unlock();
+            }
+
+            if (target >= 0) {
+                Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+                event = rebuild(reader, target, decoder);
+                // decoding goes on from where the rebuild stopped
+                chunk = new OutputChunk(decoder);
+                position = target;
+                atEnd = false;
+            }
+
+            if (seen != statusChanges || System.currentTimeMillis() - statusAt >= STATUS_MILLIS) {
+                sendStatus(position, reader.getIndexedMillis(), pace, play ? (atEnd ? "end" : "playing") : "paused");
+                statusAt = System.currentTimeMillis();
+                statusChanges = seen;
+            }
+
+            if (!play) {
+                await(seen, -1);
+                continue;
+            }
+
+            if (event == null) {
+                event = reader.next();
+                if (event == null) {
+                    // end of what is written so far, it may still grow
+                    atEnd = true;
+                    await(seen, STATUS_MILLIS);
+                    continue;
+                }
+                atEnd = false;
+            }
+
+            long delay = Math.min((event.getMillis() - position) / pace, STATUS_MILLIS);
+            if (delay > 0) {
+                long start = System.nanoTime();
+                boolean interrupted = await(seen, delay);
+                position += TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) * pace;
+                if (interrupted || position < event.getMillis()) {
+                    continue;
+                }
+            }
+
+            frame = deliver(event, frame, chunk);
+            position = Math.max(position, event.getMillis());
+            event = null;
+        }
+    }
+
+    // screen as of target sent as a snapshot, returns the first event at or after it
+    private SessionRecording.Event rebuild(SessionRecording.Reader reader, long target,
+            Utf8StreamDecoder decoder) throws IOException {
+        ScreenModel screen = new ScreenModel(startSize.getRows(), startSize.getCols(), scrollback);
+        reader.rewind();
+        SessionRecording.Event event;
+        while ((event = reader.next()) != null && event.getMillis() < target) {
+            switch (event.getType()) {
+                case SessionRecording.OUTPUT:
+                case SessionRecording.MARKER:
+                    screen.feed(decoder.decode(event.getData(), 0, event.getLength()));
+                    break;
+                case SessionRecording.RESIZE:
+                    RowsCols size = sizeOf(event);
+                    screen.resize(size.getRows(), size.getCols());
+                    break;
+                default:
+                    break;
+            }
+        }
+        sendToUser(toClientRowCol(screen.getRows(), screen.getCols()));
+        // reset first, snapshot replays scrollback into the cleared history
+        sendToUser("\u001bc" + screen.snapshot());
+        return event;
+    }
+
+    private static RowsCols sizeOf(SessionRecording.Event event) {
+        byte[] data = event.getData();
+        return new RowsCols((data[0] & 0xff) << 8 | data[1] & 0xff, (data[2] & 0xff) << 8 | data[3] & 0xff);
+    }
+
+    private byte[] deliver(SessionRecording.Event event, byte[] frame, OutputChunk chunk) throws IOException {
+        switch (event.getType()) {
+            case SessionRecording.OUTPUT:
+            case SessionRecording.MARKER:
+                if (frame == null) {
+                    frame = new byte[FRAME_HEADROOM + event.getData().length];
+                }
+                System.arraycopy(event.getData(), 0, frame, FRAME_HEADROOM, event.getLength());
+                chunk.reset(frame, FRAME_HEADROOM, event.getLength());
+                onBackendOutput(chunk);
+                break;
+            case SessionRecording.RESIZE:
+                RowsCols size = sizeOf(event);
+                sendToUser(toClientRowCol(size.getRows(), size.getCols()));
+                break;
+            default:
+                // input shows as its echo in the output already
+                break;
+        }
+        return frame;
+    }
+
+    private void sendStatus(long position, long length, int pace, String state) {
+        try {
+            sendToUser(toClientMessage("REPLAY " + hms(position) + " / " + hms(length) + "  x" + pace + "  " + state));
+        } catch (IOException ex) {
+        }
+    }
+
+    private static String hms(long millis) {
+        long seconds = millis / 1000;
+        return String.format("%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    // true if a control came in (or closed) meanwhile, waits for one if millis < 0
+    private boolean await(int seen, long millis) throws InterruptedException {
+        controlLock.lock();
+        try {
+            long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+            while (changes == seen && !closed) {
+                if (millis < 0) {
+                    changed.await();
+                } else if (nanos > 0) {
+                    nanos = changed.awaitNanos(nanos);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            controlLock.unlock();
+        }
+    }
+
+    /**
+     * play, pause, seek or speed from the user
+     *
+     * @param control
+     */
+    public void control(ReplayControl control) {
+        controlLock.lock();
+        try {
+            switch (String.valueOf(control.getAction())) {
+                case "play":
+                    playing = true;
+                    break;
+                case "pause":
+                    playing = false;
+                    break;
+                case "seek":
+                    seekTo = Math.max(0, control.getValue());
+                    break;
+                case "speed":
+                    speed = (int) Math.max(1, Math.min(MAX_SPEED, control.getValue()));
+                    break;
+                default:
+                    logger.debug("unknown replay control {}", control);
+                    return;
+            }
+            changes++;
+            changed.signalAll();
+        } finally {
+            controlLock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param data
+     * @throws IOException
+     */
+    @Override
+    public void send(byte[] data) throws IOException {
+        logger.debug("user input ignored during replay");
+    }
+
+    @Override
+    public boolean isAlive() {
+        return !closed;
+    }
+
+    /**
+     *
+     */
+    @Override
+    public void close() {
+        closeLock.lock();
+        try {
+            logger.debug("replay close() {}", terminalSessionInfo);
+
+            controlLock.lock();
+            try {
+                closed = true;
+                changed.signalAll();
+            } finally {
+                controlLock.unlock();
+            }
+            auditLogging.logClose(terminalSessionInfo);
+            removeFromSessionMap(terminalSessionInfo.getSessionId());
+        } finally {
+            closeLock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @param rowsCols
+     */
+    @Override
+    public void resize(RowsCols rowsCols) {
+        logger.debug("ignore replay resize {}", rowsCols);
+    }
+}
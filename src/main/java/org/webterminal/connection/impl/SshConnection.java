@@ -99,10 +99,10 @@ public class SshConnection extends Connection {
      * @throws IOException
      */
     @Override
-    public void send(String data) throws IOException {
+    public void send(byte[] data) throws IOException {
         if (isAlive()) {
             OutputStream outputStream = channel.getOutputStream();
-            outputStream.write(data.getBytes(StandardCharsets.UTF_8));
+            outputStream.write(data);
             outputStream.flush();
 
             terminalSessionInfo.setTrafficTimeNow();
@@ -124,22 +124,27 @@ public class SshConnection extends Connection {
      *
      */
     @Override
-    public synchronized void close() {
-        auditLogging.logClose(terminalSessionInfo);
-
+    public void close() {
+        closeLock.lock();
         try {
-            if (channel != null
-                    && channel.getInputStream() != null) {
-                channel.getInputStream().close();
+            auditLogging.logClose(terminalSessionInfo);
+
+            try {
+                if (channel != null
+                        && channel.getInputStream() != null) {
+                    channel.getInputStream().close();
+                }
+            } catch (IOException ex) {
+            }
+            if (channel != null) {
+                channel.disconnect();
             }
-        } catch (IOException ex) {
-        }
-        if (channel != null) {
-            channel.disconnect();
-        }
 
-        if (session != null) {
-            session.disconnect();
+            if (session != null) {
+                session.disconnect();
+            }
+        } finally {
+            closeLock.unlock();
         }
     }
 
@@ -156,6 +161,7 @@ public class SshConnection extends Connection {
             ((ChannelShell) channel).
                     setPtySize(rowsCols.getCols(), rowsCols.getRows(), 0, 0);
 
+            resizeScreen(rowsCols);
             terminalSessionInfo.setRows(rowsCols.getRows());
             terminalSessionInfo.setCols(rowsCols.getCols());
 
@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.net.telnet.EchoOptionHandler;
 import org.apache.commons.net.telnet.InvalidTelnetOptionException;
@@ -125,10 +124,10 @@ public class TelnetConnection extends Connection {
      * @throws IOException
      */
     @Override
-    public void send(String data) throws IOException {
+    public void send(byte[] data) throws IOException {
         if (isAlive()) {
             OutputStream outputStream = telnet.getOutputStream();
-            outputStream.write(data.getBytes(StandardCharsets.UTF_8));
+            outputStream.write(data);
             outputStream.flush();
 
             terminalSessionInfo.setTrafficTimeNow();
@@ -150,19 +149,24 @@ public class TelnetConnection extends Connection {
      *
      */
     @Override
-    public synchronized void close() {
-        auditLogging.logClose(terminalSessionInfo);
-
+    public void close() {
+        closeLock.lock();
         try {
-            telnet.disconnect();
+            auditLogging.logClose(terminalSessionInfo);
 
-            if (telnet.getInputStream() != null) {
-                telnet.getInputStream().close();
-            }
-            if (telnet.getOutputStream() != null) {
-                telnet.getOutputStream().close();
+            try {
+                telnet.disconnect();
+
+                if (telnet.getInputStream() != null) {
+                    telnet.getInputStream().close();
+                }
+                if (telnet.getOutputStream() != null) {
+                    telnet.getOutputStream().close();
+                }
+            } catch (IOException ex) {
             }
-        } catch (IOException ex) {
+        } finally {
+            closeLock.unlock();
         }
     }
 
@@ -188,6 +192,7 @@ public class TelnetConnection extends Connection {
                 logger.debug("resize ex: {}", ex);
             }
 
+            resizeScreen(rowsCols);
             terminalSessionInfo.setRows(rowsCols.getRows());
             terminalSessionInfo.setCols(rowsCols.getCols());
 
@@ -0,0 +1,52 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.nio;
+
+import java.io.IOException;
+
+/**
+ * callbacks for a channel registered with a TelnetEventLoop, always run on
+ * the loop thread, must not block
+ */
+public interface ChannelHandler {
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void onConnectable() throws IOException;
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void onReadable() throws IOException;
+
+    /**
+     *
+     * @throws IOException
+     */
+    public void onWritable() throws IOException;
+
+    /**
+     * any exception out of the callbacks above
+     *
+     * @param ex
+     */
+    public void onFailure(Exception ex);
+}
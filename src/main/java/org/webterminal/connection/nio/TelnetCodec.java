@@ -0,0 +1,370 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * telnet protocol (RFC 854) for the NIO engine: strips IAC sequences from
+ * backend output in place, answers option negotiation for TTYPE, NAWS, ECHO
+ * and SGA, refuses everything else. Decoding side is single threaded (event
+ * loop), replies are collected and taken by the caller after each decode
+ */
+public class TelnetCodec {
+
+    static final int IAC = 255;
+    static final int DONT = 254;
+    static final int DO = 253;
+    static final int WONT = 252;
+    static final int WILL = 251;
+    static final int SB = 250;
+    static final int SE = 240;
+
+    static final int ECHO = 1;
+    static final int SGA = 3;
+    static final int TTYPE = 24;
+    static final int NAWS = 31;
+
+    static final int TTYPE_IS = 0;
+    static final int TTYPE_SEND = 1;
+
+    private static final int CR = '\r';
+    private static final int LF = '\n';
+
+    // parser states
+    private static final int S_DATA = 0;
+    private static final int S_IAC = 1;
+    private static final int S_WILL = 2;
+    private static final int S_WONT = 3;
+    private static final int S_DO = 4;
+    private static final int S_DONT = 5;
+    private static final int S_SB = 6;
+    private static final int S_SB_DATA = 7;
+    private static final int S_SB_IAC = 8;
+    private static final int S_CR = 9;
+
+    private final byte[] terminalType;
+
+    private int state = S_DATA;
+    private int sbOption;
+    private final byte[] sbData = new byte[64];
+    private int sbLength;
+
+    // we do, they do; our offers still waiting for an answer
+    private final boolean[] local = new boolean[256];
+    private final boolean[] remote = new boolean[256];
+    private final boolean[] localPending = new boolean[256];
+
+    private int cols;
+    private int rows;
+
+    private final ByteArrayOutputStream replies = new ByteArrayOutputStream(64);
+
+    /**
+     *
+     * @param terminalType
+     * @param cols
+     * @param rows
+     */
+    public TelnetCodec(String terminalType, int cols, int rows) {
+        this.terminalType = terminalType.getBytes(StandardCharsets.US_ASCII);
+        this.cols = cols;
+        this.rows = rows;
+    }
+
+    /**
+     * offer terminal type and window size right after connect
+     */
+    public void start() {
+        offer(TTYPE);
+        offer(NAWS);
+    }
+
+    /**
+     * strip telnet commands out of data, in place
+     *
+     * @param buffer
+     * @param offset
+     * @param length
+     * @return length of plain data now starting at offset
+     */
+    public int decode(byte[] buffer, int offset, int length) {
+        int out = offset;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = buffer[i] & 0xff;
+            switch (state) {
+                case S_DATA:
+                    if (b == IAC) {
+                        state = S_IAC;
+                    } else {
+                        buffer[out++] = (byte) b;
+                        if (b == CR) {
+                            state = S_CR;
+                        }
+                    }
+                    break;
+                case S_CR:
+                    // CR NUL is a bare CR
+                    state = S_DATA;
+                    if (b == IAC) {
+                        state = S_IAC;
+                    } else if (b != 0) {
+                        buffer[out++] = (byte) b;
+                        if (b == CR) {
+                            state = S_CR;
+                        }
+                    }
+                    break;
+                case S_IAC:
+                    state = S_DATA;
+                    switch (b) {
+                        case IAC:
+                            buffer[out++] = (byte) IAC;
+                            break;
+                        case WILL:
+                            state = S_WILL;
+                            break;
+                        case WONT:
+                            state = S_WONT;
+                            break;
+                        case DO:
+                            state = S_DO;
+                            break;
+                        case DONT:
+                            state = S_DONT;
+                            break;
+                        case SB:
+                            state = S_SB;
+                            break;
+                        default:
+                            // NOP, GA, AYT etc. nothing to do
+                            break;
+                    }
+                    break;
+                case S_WILL:
+                    state = S_DATA;
+                    onWill(b);
+                    break;
+                case S_WONT:
+                    state = S_DATA;
+                    onWont(b);
+                    break;
+                case S_DO:
+                    state = S_DATA;
+                    onDo(b);
+                    break;
+                case S_DONT:
+                    state = S_DATA;
+                    onDont(b);
+                    break;
+                case S_SB:
+                    sbOption = b;
+                    sbLength = 0;
+                    state = S_SB_DATA;
+                    break;
+                case S_SB_DATA:
+                    if (b == IAC) {
+                        state = S_SB_IAC;
+                    } else if (sbLength < sbData.length) {
+                        sbData[sbLength++] = (byte) b;
+                    }
+                    break;
+                case S_SB_IAC:
+                    if (b == SE) {
+                        state = S_DATA;
+                        onSubnegotiation();
+                    } else {
+                        if (b == IAC && sbLength < sbData.length) {
+                            sbData[sbLength++] = (byte) IAC;
+                        }
+                        state = S_SB_DATA;
+                    }
+                    break;
+                default:
+                    state = S_DATA;
+                    break;
+            }
+        }
+        return out - offset;
+    }
+
+    /**
+     * user input to backend: IAC doubled, bare CR followed by NUL
+     *
+     * @param data
+     * @return
+     */
+    public static byte[] encode(byte[] data) {
+        int extra = 0;
+        for (int i = 0; i < data.length; i++) {
+            int b = data[i] & 0xff;
+            if (b == IAC || (b == CR && (i + 1 == data.length || data[i + 1] != LF))) {
+                extra++;
+            }
+        }
+        if (extra == 0) {
+            return data;
+        }
+
+        byte[] encoded = new byte[data.length + extra];
+        int j = 0;
+        for (int i = 0; i < data.length; i++) {
+            int b = data[i] & 0xff;
+            encoded[j++] = data[i];
+            if (b == IAC) {
+                encoded[j++] = (byte) IAC;
+            } else if (b == CR && (i + 1 == data.length || data[i + 1] != LF)) {
+                encoded[j++] = 0;
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * new window size, sent right away if backend agreed to NAWS
+     *
+     * @param cols
+     * @param rows
+     */
+    public void resize(int cols, int rows) {
+        this.cols = cols;
+        this.rows = rows;
+        if (local[NAWS]) {
+            sendWindowSize();
+        }
+    }
+
+    /**
+     *
+     * @return true if backend echoes, i.e. a character mode session
+     */
+    public boolean isRemoteEcho() {
+        return remote[ECHO];
+    }
+
+    /**
+     *
+     * @return true if there are replies to send to backend
+     */
+    public boolean hasReplies() {
+        return replies.size() > 0;
+    }
+
+    /**
+     *
+     * @return replies collected so far, cleared
+     */
+    public byte[] takeReplies() {
+        byte[] pending = replies.toByteArray();
+        replies.reset();
+        return pending;
+    }
+
+    private void offer(int option) {
+        localPending[option] = true;
+        command(WILL, option);
+    }
+
+    private void onWill(int option) {
+        if (option == ECHO || option == SGA) {
+            if (!remote[option]) {
+                remote[option] = true;
+                command(DO, option);
+            }
+        } else {
+            command(DONT, option);
+        }
+    }
+
+    private void onWont(int option) {
+        if (remote[option]) {
+            remote[option] = false;
+            command(DONT, option);
+        }
+    }
+
+    private void onDo(int option) {
+        if (option == TTYPE || option == NAWS || option == SGA) {
+            if (!local[option]) {
+                local[option] = true;
+                // no answer to an answer
+                if (!localPending[option]) {
+                    command(WILL, option);
+                }
+                localPending[option] = false;
+                if (option == NAWS) {
+                    sendWindowSize();
+                }
+            }
+        } else {
+            // we never echo back to backend
+            command(WONT, option);
+        }
+    }
+
+    private void onDont(int option) {
+        if (local[option] || localPending[option]) {
+            boolean answer = !localPending[option];
+            local[option] = false;
+            localPending[option] = false;
+            if (answer) {
+                command(WONT, option);
+            }
+        }
+    }
+
+    private void onSubnegotiation() {
+        if (sbOption == TTYPE && sbLength > 0 && sbData[0] == TTYPE_SEND && local[TTYPE]) {
+            replies.write(IAC);
+            replies.write(SB);
+            replies.write(TTYPE);
+            replies.write(TTYPE_IS);
+            replies.write(terminalType, 0, terminalType.length);
+            replies.write(IAC);
+            replies.write(SE);
+        }
+    }
+
+    private void sendWindowSize() {
+        replies.write(IAC);
+        replies.write(SB);
+        replies.write(NAWS);
+        writeEscaped(cols >> 8);
+        writeEscaped(cols);
+        writeEscaped(rows >> 8);
+        writeEscaped(rows);
+        replies.write(IAC);
+        replies.write(SE);
+    }
+
+    private void writeEscaped(int b) {
+        b &= 0xff;
+        replies.write(b);
+        if (b == IAC) {
+            replies.write(IAC);
+        }
+    }
+
+    private void command(int command, int option) {
+        replies.write(IAC);
+        replies.write(command);
+        replies.write(option);
+    }
+}
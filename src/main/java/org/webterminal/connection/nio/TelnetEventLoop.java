@@ -0,0 +1,179 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.nio;
+
+import static org.webterminal.connection.Connection.FRAME_HEADROOM;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * one selector thread serving many telnet channels. Channel registration and
+ * interest changes go through execute() so they happen on the loop thread
+ */
+public class TelnetEventLoop implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(TelnetEventLoop.class);
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    // shared by all channels of this loop, consumers copy what they keep
+    private final byte[] readBuffer;
+    private final ByteBuffer readByteBuffer;
+
+    /**
+     *
+     * @param name
+     * @param bufferSize
+     * @throws IOException
+     */
+    public TelnetEventLoop(String name, int bufferSize) throws IOException {
+        this.selector = Selector.open();
+        this.readBuffer = new byte[FRAME_HEADROOM + bufferSize];
+        this.readByteBuffer = ByteBuffer.wrap(readBuffer);
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     *
+     * @param task
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * loop thread only
+     *
+     * @param channel
+     * @param ops
+     * @param handler
+     * @return
+     * @throws IOException
+     */
+    public SelectionKey register(SelectableChannel channel, int ops, ChannelHandler handler) throws IOException {
+        return channel.register(selector, ops, handler);
+    }
+
+    /**
+     * loop thread only, reset for the next read with headroom in front
+     *
+     * @return
+     */
+    public ByteBuffer getReadByteBuffer() {
+        readByteBuffer.clear();
+        readByteBuffer.position(FRAME_HEADROOM);
+        return readByteBuffer;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public byte[] getReadBuffer() {
+        return readBuffer;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getChannelCount() {
+        return selector.keys().size();
+    }
+
+    /**
+     *
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        logger.debug("telnet event loop started");
+        while (running) {
+            try {
+                selector.select();
+            } catch (IOException ex) {
+                logger.error("select exception: {}", ex.getMessage());
+                continue;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    logger.error("event loop task exception: {}", ex.toString());
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+
+                ChannelHandler handler = (ChannelHandler) key.attachment();
+                try {
+                    if (key.isValid() && key.isConnectable()) {
+                        handler.onConnectable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        handler.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        handler.onReadable();
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    handler.onFailure(ex);
+                }
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException ex) {
+        }
+        logger.debug("telnet event loop ended");
+    }
+}
@@ -0,0 +1,93 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.nio;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * fixed set of event loops, channels handed out round robin, so thread count
+ * doesn't grow with number of sessions
+ */
+public class TelnetEventLoopGroup {
+
+    private final TelnetEventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    // timeouts only, tasks hop onto their loop
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "telnet-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     *
+     * @param threads
+     * @param bufferSize read buffer per loop
+     * @throws IOException
+     */
+    public TelnetEventLoopGroup(int threads, int bufferSize) throws IOException {
+        loops = new TelnetEventLoop[Math.max(1, threads)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new TelnetEventLoop("telnet-loop-" + i, bufferSize);
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public TelnetEventLoop next() {
+        return loops[Math.floorMod(next.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * run task on loop after delay
+     *
+     * @param loop
+     * @param task
+     * @param millis
+     * @return
+     */
+    public ScheduledFuture<?> schedule(TelnetEventLoop loop, Runnable task, long millis) {
+        return timer.schedule(() -> loop.execute(task), millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getThreadCount() {
+        return loops.length + 1;
+    }
+
+    /**
+     *
+     */
+    public void shutdown() {
+        for (TelnetEventLoop loop : loops) {
+            loop.shutdown();
+        }
+        timer.shutdownNow();
+    }
+}
@@ -49,6 +49,62 @@ public class Constants {
      */
     public static final String CLIENT_DATA = "d";  // save a few bytes for client
 
+    /**
+     * replay control: play, pause, seek or speed
+     */
+    public static final String CLIENT_REPLAY = "replay";
+
+    /**
+     * webSocketSession attribute holding negotiated framing protocol version
+     */
+    public static final String SESSION_PROTOCOL = "Protocol";
+
+    /**
+     * webSocketSession attribute holding its SessionContext
+     */
+    public static final String SESSION_CONTEXT = "Context";
+
+    /**
+     * webSocketSession attribute holding lock for ordered sends
+     */
+    public static final String SESSION_SEND_LOCK = "SendLock";
+
+    /**
+     * framing protocol v0: JSON TwoWayMessage text frames only (old clients)
+     */
+    public static final int PROTOCOL_JSON = 0;
+
+    /**
+     * framing protocol v1: terminal output as binary frames, 1 byte type tag
+     * followed by raw payload; control messages stay JSON text frames
+     */
+    public static final int PROTOCOL_BINARY = 1;
+
+    /**
+     * binary frame type tag for raw terminal output, same letter as JSON type
+     */
+    public static final byte FRAME_DATA = 'n';
+
+    /**
+     * inbound binary frame (protocol v1) type tag: raw user input bytes
+     */
+    public static final byte FRAME_IN_DATA = 'd';
+
+    /**
+     * inbound binary frame type tag: rows then cols, 2 bytes each, big endian
+     */
+    public static final byte FRAME_IN_RESIZE = 'r';
+
+    /**
+     * inbound binary frame type tag: suspend, token as UTF-8
+     */
+    public static final byte FRAME_IN_SUSPEND = 'z';
+
+    /**
+     * inbound binary frame type tag: disconnect, token as UTF-8
+     */
+    public static final byte FRAME_IN_DISCONNECT = 'x';
+
     /**
      * potential prompt ending, must be lower case, ends with 1 space
      */
@@ -104,6 +160,17 @@ public class Constants {
      */
     public static final String TAKE = "TAKE";
 
+    /**
+     * read only like WATCH, gets screen deltas at a capped rate instead of
+     * raw output, for low bandwidth links
+     */
+    public static final String DELTA = "DELTA";
+
+    /**
+     * playback of a recorded session, no backend
+     */
+    public static final String REPLAY = "REPLAY";
+
     /**
      *
      */
@@ -21,35 +21,20 @@ import static org.webterminal.constant.Constants.*;
 import org.webterminal.pojo.TerminalSessionInfo;
 import org.webterminal.pojo.TokenRequest;
 import org.webterminal.pojo.TokenResponse;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import javax.net.ssl.SSLContext;
 import jakarta.servlet.http.HttpServletRequest;
-import java.nio.charset.Charset;
-import org.springframework.web.util.UriUtils;
-import org.apache.hc.client5.http.classic.HttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
-import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
-import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
-import org.apache.hc.client5.http.ssl.TlsSocketStrategy;
-import org.apache.hc.client5.http.ssl.TrustAllStrategy;
-import org.apache.hc.core5.ssl.SSLContextBuilder;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormatter;
 import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.webterminal.service.SessionControlService;
 
 @Controller
 public class JumpBoxController {
@@ -58,8 +43,9 @@ public class JumpBoxController {
     private static final List<String> listConnectionType = Arrays.asList(SSH_LC, TELNET_LC, TN3270_LC);
     private static final List<String> listAuditLogging = Arrays.asList("OFF", "ON");
 
-    private RestTemplate restTemplate = null;
-    private RestTemplate restTemplatSSL = null;
+    // in process, /internal/* REST endpoints are for outside callers
+    @Autowired
+    private SessionControlService sessionControlService;
 
     /**
      *
@@ -96,26 +82,19 @@ public class JumpBoxController {
 
         logger.debug("/restricted/go req with {}", treq);
 
-        // this is to show token request as an outside REST client
-        // could have called internal controller directly in the same app
-        String url = httpRequest.getScheme() + "://localhost:" + httpRequest.getServerPort() + "/internal/token";
-        logger.debug("REST call {} to get token", url);
+        TokenResponse response = sessionControlService.issueToken(treq);
 
-        RestTemplate myTemplate = getRestTemplate(httpRequest.getScheme());
-        HttpEntity<TokenRequest> request = new HttpEntity<>(treq);
-        TokenResponse response = myTemplate.postForObject(url, request, TokenResponse.class);
+        logger.debug("issueToken response {}", response);
 
-        logger.debug("REST /internal/token response {}", response);
-
-        if (response != null && response.getStatus().equalsIgnoreCase("success")) {
+        if (response.getStatus().equalsIgnoreCase("success")) {
             return String.format("redirect:/session?token=" + response.getPayload());
         } else {
-            logger.debug("/restricted/go back to jumpbox on REST call failure");
+            logger.debug("/restricted/go back to jumpbox on token failure");
 
             model.addAttribute("request", treq);
             model.addAttribute("connectionType", listConnectionType);
             model.addAttribute("message", "Request failed: "
-                    + (response != null ? response.getPayload() : "REST call failure")
+                    + response.getPayload()
                     + ". Please check your input: Host required; Username required for ssh sessions");
 
             logger.debug("/restricted/go model {}", model.toString());
@@ -138,25 +117,20 @@ public class JumpBoxController {
             HttpServletRequest httpRequest) {
 
         String userRole;
-        // this is to show sessions request as an outside REST client
-        // could have called internal controller directly in the same app
-        String url;
+        List<TerminalSessionInfo> sessions;
         if (hasRole("ROLE_ADMIN", authentication.getAuthorities())) {
             // fetch all
-            url = httpRequest.getScheme() + "://localhost:" + httpRequest.getServerPort() + "/internal/sessions";
+            sessions = sessionControlService.listSessions(null);
             userRole = "ADMIN";
         } else {
             // fetch only belong to user
-            url = httpRequest.getScheme() + "://localhost:" + httpRequest.getServerPort() + "/internal/sessions?user="
-                    + UriUtils.encodeQueryParam(authentication.getName(), Charset.defaultCharset());
+            sessions = sessionControlService.listSessions(authentication.getName());
             userRole = "USER";
         }
-        logger.debug("REST call {} to get sessions", url);
-
-        RestTemplate myTemplate = getRestTemplate(httpRequest.getScheme());
-        TerminalSessionInfo[] response = myTemplate.getForObject(url, TerminalSessionInfo[].class);
+        // own copy to sort
+        TerminalSessionInfo[] response = sessions.toArray(new TerminalSessionInfo[0]);
 
-        logger.debug("REST /internal/sessions response {}", Arrays.toString(response));
+        logger.debug("listSessions response {}", Arrays.toString(response));
 
         if (response != null) {
             // sort it for UI
@@ -231,21 +205,14 @@ public class JumpBoxController {
         treq.setWebUserName(authentication.getName());
         treq.setWebUserRole(getRole(authentication.getAuthorities()));
 
-        // this is to show token request as an outside REST client
-        // could have called internal controller directly in the same app
-        String url = httpRequest.getScheme() + "://localhost:" + httpRequest.getServerPort() + "/internal/token";
-        logger.debug("REST call {} to get token", url);
+        TokenResponse response = sessionControlService.issueToken(treq);
 
-        RestTemplate myTemplate = getRestTemplate(httpRequest.getScheme());
-        HttpEntity<TokenRequest> request = new HttpEntity<>(treq);
-        TokenResponse response = myTemplate.postForObject(url, request, TokenResponse.class);
+        logger.debug("issueToken response {}", response);
 
-        logger.debug("REST /internal/token response {}", response);
-
-        if (response != null && response.getStatus().equalsIgnoreCase("success")) {
+        if (response.getStatus().equalsIgnoreCase("success")) {
             return String.format("redirect:/session?token=" + response.getPayload());
         } else {
-            logger.debug("back to /sessions on REST call rejection");
+            logger.debug("back to /sessions on token rejection");
             return String.format("redirect:/restricted/sessions?status=invalid");
         }
     }
@@ -269,57 +236,64 @@ public class JumpBoxController {
         String webUserName = authentication.getName();
         String webUserRole = getRole(authentication.getAuthorities());
 
-        // this is to show drop request as an outside REST client
-        // could have called internal controller directly in the same app
-        String url = httpRequest.getScheme() + "://localhost:" + httpRequest.getServerPort()
-                + "/internal/drop?token={token}&webUserName={webUserName}&webUserRole={webUserRole}";
-        logger.debug("REST call {} to drop token", url);
-
-        RestTemplate myTemplate = getRestTemplate(httpRequest.getScheme());
-        Map response = myTemplate.getForObject(url, Map.class, token, webUserName, webUserRole);
+        Map response = sessionControlService.dropSession(token, webUserName, webUserRole);
 
-        logger.debug("REST /internal/drop response {}", response);
+        logger.debug("dropSession response {}", response);
 
         return response;
     }
 
     /**
+     * without file lists recordings (own ones unless ADMIN), with file
+     * starts its replay
      *
-     * @param scheme
+     * @param file
+     * @param status
+     * @param model
+     * @param authentication
+     * @param httpRequest
      * @return
      */
-    public RestTemplate getRestTemplate(String scheme) {
-        if (scheme.equalsIgnoreCase("http")) {
-            if (this.restTemplate == null) {
-                this.restTemplate = new RestTemplate();
+    @GetMapping("/restricted/replay")
+    public String replay(
+            @RequestParam(name = "file", required = false) String file,
+            @RequestParam(name = "status", required = false) String status,
+            Model model,
+            Authentication authentication,
+            HttpServletRequest httpRequest) {
+
+        logger.debug("/restricted/replay req with {}", file);
+
+        if (file == null) {
+            boolean isAdmin = hasRole("ROLE_ADMIN", authentication.getAuthorities());
+            model.addAttribute("recordings", sessionControlService.listRecordings(isAdmin ? null : authentication.getName()));
+            if ("invalid".equals(status)) {
+                model.addAttribute("status", "!!! Recording Not Available, Return to Recording List !!!");
+            } else {
+                model.addAttribute("status", "");
             }
-            return this.restTemplate;
+            model.addAttribute("title", authentication.getName() + ": Session Recordings");
+
+            return "recordings";
+        }
+
+        TokenRequest treq = new TokenRequest();
+        treq.setSessionType(REPLAY);
+        treq.setRecording(file);
+
+        treq.setWebUserIp(httpRequest.getRemoteAddr());
+        treq.setWebUserName(authentication.getName());
+        treq.setWebUserRole(getRole(authentication.getAuthorities()));
+
+        TokenResponse response = sessionControlService.issueToken(treq);
+
+        logger.debug("issueToken response {}", response);
+
+        if (response.getStatus().equalsIgnoreCase("success")) {
+            return String.format("redirect:/session?token=" + response.getPayload());
         } else {
-            if (this.restTemplatSSL == null) {
-                try {
-                    SSLContext sslContext = SSLContextBuilder.create()
-                            .loadTrustMaterial(TrustAllStrategy.INSTANCE)
-                            .build();
-                    TlsSocketStrategy tlsStrategy = ClientTlsStrategyBuilder.create()
-                            .setSslContext(sslContext)
-                            .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                            .buildClassic();
-
-                    HttpClient httpClient = HttpClients.custom()
-                            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
-                                    .setTlsSocketStrategy(tlsStrategy)
-                                    .build())
-                            .build();
-
-                    HttpComponentsClientHttpRequestFactory requestFactory
-                            = new HttpComponentsClientHttpRequestFactory(httpClient);
-                    this.restTemplatSSL = new RestTemplate(requestFactory);
-
-                } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
-                    logger.error("Error setting up SSL RestTemplate {}", ex);
-                }
-            }
-            return this.restTemplatSSL;
+            logger.debug("back to /restricted/replay on token rejection");
+            return String.format("redirect:/restricted/replay?status=invalid");
         }
     }
 
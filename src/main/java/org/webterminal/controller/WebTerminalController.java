@@ -17,27 +17,19 @@
  */
 package org.webterminal.controller;
 
-import org.webterminal.connection.Connection;
 import static org.webterminal.constant.Constants.*;
+import org.webterminal.connection.impl.ReplayConnection;
+import org.webterminal.pojo.OutboundQueueInfo;
+import org.webterminal.pojo.PendingTokenInfo;
+import org.webterminal.pojo.SessionThreadInfo;
 import org.webterminal.pojo.TerminalSessionInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.webterminal.pojo.TokenRequest;
 import org.webterminal.pojo.TokenResponse;
-import com.rits.cloning.Cloner;
 import java.util.Map;
-import java.util.UUID;
-//import com.fasterxml.uuid.EthernetAddress;
-//import com.fasterxml.uuid.Generators;
-import java.util.concurrent.ConcurrentHashMap;
 import jakarta.servlet.http.HttpServletRequest;
-import org.joda.time.DateTime;
-import org.joda.time.Seconds;
-import org.joda.time.format.DateTimeFormatter;
-import org.joda.time.format.ISODateTimeFormat;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestBody;
@@ -46,9 +38,10 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.servlet.ModelAndView;
+import org.webterminal.service.SessionControlService;
 import org.webterminal.service.WebTerminalService;
-import static org.webterminal.service.impl.WebTerminalServiceImpl.tokenToRootConnection;
-import java.util.Collections;
+import static org.webterminal.service.impl.SessionControlServiceImpl.tokenToRequest;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.rootSessionInfo;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 
@@ -56,14 +49,12 @@ import org.apache.commons.lang3.StringUtils;
 public class WebTerminalController {
 
     private static final Logger logger = LoggerFactory.getLogger(WebTerminalController.class);
-    private static final Map<String, TokenRequest> tokenMap = new ConcurrentHashMap<>();
-    private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeNoMillis();
 
     @Autowired
     private WebTerminalService webTerminalService;
 
-    @Value("${webterminal.tokenTTL}")
-    private int tokenTTL;
+    @Autowired
+    private SessionControlService sessionControlService;
 
     /**
      *
@@ -74,50 +65,9 @@ public class WebTerminalController {
     @RequestMapping(value = "/internal/token", method = RequestMethod.POST)
     @ResponseBody
     public TokenResponse token(@RequestBody TokenRequest treq, HttpServletRequest request) {
-        TokenResponse resp;
         logger.debug("/internal/token req from {} with {}", request.getRemoteAddr(), treq.toString());
-        // TOOD: better sanity check of treq?
-
-        // minimal required:
-        //   host
-        //   username if ssh
-        //
-        //   force usePty to true if ssh and password not provided, or tn3270
-        //
-        if ((treq.getSessionType() != null
-                && (treq.getSessionType().equalsIgnoreCase(JOIN)
-                || treq.getSessionType().equalsIgnoreCase(TAKE)
-                || treq.getSessionType().equalsIgnoreCase(WATCH))
-                && StringUtils.isNotEmpty(treq.getParentToken()))
-                || StringUtils.isNotEmpty(treq.getHost())
-                && (treq.getConnectionType().equalsIgnoreCase(TELNET_LC)
-                || treq.getConnectionType().equalsIgnoreCase(TN3270_LC)
-                || treq.getConnectionType().equalsIgnoreCase(SSH_LC)
-                && StringUtils.isNotEmpty(treq.getUsername()))) {
-
-            // overwrite in time always
-            String tstr = new DateTime().toString(parser);
-            treq.setInTime(tstr);
-
-            if (StringUtils.isEmpty(treq.getSessionType())) {
-                treq.setSessionType(NEW);
-            }
-
-            if (okToIssueToken(treq)) {
-                String token = UUID.randomUUID().toString();
-                // String token = Generators.timeBasedGenerator( EthernetAddress.fromInterface() ).generate().toString();
-
-                tokenMap.put(token, treq);
-
-                logger.debug("TOKEN: {} returned for {}", token, treq.toString());
-
-                resp = new TokenResponse("success", token);
-                return resp;
-            }
-        }
-        resp = new TokenResponse("failure", "Invalid Request");
 
-        return resp;
+        return sessionControlService.issueToken(treq);
     }
 
     /**
@@ -129,7 +79,7 @@ public class WebTerminalController {
     @GetMapping("/session")
     public ModelAndView session(@RequestParam(name = "token", required = true) String token, HttpServletRequest request) {
 
-        TokenRequest sreq = tokenMap.get(token);
+        TokenRequest sreq = tokenToRequest(token);
         if (null != sreq) {
             boolean resumeSuspended = false;
             ModelAndView model = new ModelAndView("session");
@@ -140,32 +90,36 @@ public class WebTerminalController {
 
             // add to type about sessionType (related to NEW/JOIN/TAKE/VIEW)
             // format  NEW/JOIN/TAKE/WATCH : Desc : host:port / ssh/telnet/tn3270
-            if (!sreq.getSessionType().equalsIgnoreCase(NEW)) {
-                Connection connection = tokenToRootConnection(sreq.getParentToken());
-                if (connection != null) {
-                    String type = connection.isSuspended() ? "RESUME" : sreq.getSessionType();
+            if (sreq.getSessionType().equalsIgnoreCase(REPLAY)) {
+                // size comes from the recording once it starts
+                model.addObject("title", REPLAY + "  " + sreq.getRecording());
+            } else if (!sreq.getSessionType().equalsIgnoreCase(NEW)) {
+                // could be on another node
+                TerminalSessionInfo parentInfo = rootSessionInfo(sreq.getParentToken());
+                if (parentInfo != null) {
+                    String type = parentInfo.isSuspended() ? "RESUME" : sreq.getSessionType();
 
                     // can suspend this conn if it's resuming a conn
-                    resumeSuspended = connection.isSuspended();
+                    resumeSuspended = parentInfo.isSuspended();
 
-                    is3270 = connection.getTerminalSessionInfo().getConnectionType().equals("tn3270");
-                    rows = connection.getTerminalSessionInfo().getRows();
-                    cols = connection.getTerminalSessionInfo().getCols();
+                    is3270 = parentInfo.getConnectionType().equals("tn3270");
+                    rows = parentInfo.getRows();
+                    cols = parentInfo.getCols();
 
-                    if (StringUtils.isNotEmpty(connection.getTerminalSessionInfo().getDescription())) {
+                    if (StringUtils.isNotEmpty(parentInfo.getDescription())) {
                         model.addObject("title", type + "  ["
-                                + connection.getTerminalSessionInfo().getDescription() + "] "
-                                + connection.getTerminalSessionInfo().getHost() + ":"
-                                + connection.getTerminalSessionInfo().getPort().toString() + "/"
-                                + connection.getTerminalSessionInfo().getConnectionType());
+                                + parentInfo.getDescription() + "] "
+                                + parentInfo.getHost() + ":"
+                                + parentInfo.getPort().toString() + "/"
+                                + parentInfo.getConnectionType());
                     } else {
                         model.addObject("title", type + "  "
-                                + connection.getTerminalSessionInfo().getHost() + ":"
-                                + connection.getTerminalSessionInfo().getPort().toString() + "/"
-                                + connection.getTerminalSessionInfo().getConnectionType());
+                                + parentInfo.getHost() + ":"
+                                + parentInfo.getPort().toString() + "/"
+                                + parentInfo.getConnectionType());
                     }
                     // inherit fontSize too
-                    sreq.setFontSize(connection.getTerminalSessionInfo().getFontSize());
+                    sreq.setFontSize(parentInfo.getFontSize());
                 } else {
                     model.addObject("title", "ERROR: Invalid Request (Session Not Found)");
                 }
@@ -202,6 +156,8 @@ public class WebTerminalController {
                     || sreq.getSessionType().equalsIgnoreCase(TAKE);
 
             model.addObject("canSuspend", canSuspend);
+            model.addObject("replay", sreq.getSessionType().equalsIgnoreCase(REPLAY));
+            model.addObject("maxSpeed", ReplayConnection.MAX_SPEED);
 
             model.addObject("token", token);
             model.addObject("fontSize", sreq.getFontSize());
@@ -242,46 +198,28 @@ public class WebTerminalController {
     ) {
         logger.debug("/internal/drop session with token {}", token);
 
-        boolean verified = false;
-
-        // ACL:
-        // webUserRole "ROLE_ADMIN"
-        // token's connection getWebUserName() same as webUserName
-        if ("ROLE_ADMIN".equals(webUserRole)) {
-            verified = true;
-        } else {
-            Connection connection = tokenToRootConnection(token);
-            if (connection != null
-                    && connection.getTerminalSessionInfo().getWebUserName().equals(webUserName)) {
-                verified = true;
-            }
-        }
-
-        if (verified) {
-            return webTerminalService.dropSession(token);
-        } else {
-            return Collections.singletonMap("status", "FAILURE: KILL " + token + " NOT ALLOWED");
-        }
+        return sessionControlService.dropSession(token, webUserName, webUserRole);
     }
 
     /**
+     * a page of pending tokens, oldest first, passwords never included
      *
+     * @param webUserName
+     * @param host
+     * @param minAgeSeconds
+     * @param offset
+     * @param limit
      * @return
      */
     @RequestMapping(value = "/internal/pending", method = RequestMethod.GET)
     @ResponseBody
-    public Map pendingTokens() {
-        Cloner cloner = new Cloner();
-        Map<String, TokenRequest> tmpMap = cloner.deepClone(tokenMap);
-
-        tmpMap.entrySet().forEach((Map.Entry<String, TokenRequest> entry) -> {
-            TokenRequest obj = entry.getValue();
-            if (obj.getPassword() != null) {
-                obj.setPassword("*");
-            }
-        });
-
-        return tmpMap;
+    public List<PendingTokenInfo> pendingTokens(
+            @RequestParam(name = "user", required = false) String webUserName,
+            @RequestParam(name = "host", required = false) String host,
+            @RequestParam(name = "minAge", defaultValue = "0") int minAgeSeconds,
+            @RequestParam(name = "offset", defaultValue = "0") int offset,
+            @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        return sessionControlService.getPendingTokens(webUserName, host, minAgeSeconds, offset, limit);
     }
 
     /**
@@ -298,86 +236,70 @@ public class WebTerminalController {
         logger.debug("/internal/sessions req from {} for {}",
                 request.getRemoteAddr(), webUserName == null ? "ALL" : webUserName);
 
-        return webTerminalService.getTerminalSessionInfoList(webUserName);
-    }
-
-    private boolean okToIssueToken(TokenRequest treq) {
-        boolean verified = false;
-
-        if (treq != null) {
-            // ACL:
-            // treq.getWebUserRole() "ROLE_ADMIN"
-            // parentConnection getWebUserName() same as treq.getWebUserName()
-            //   or parentConnection isVisibleToAll
-            if ("ROLE_ADMIN".equals(treq.getWebUserRole())) {
-                verified = true;
-            } else {
-                if (treq.getParentToken() != null) {
-                    Connection connection = tokenToRootConnection(treq.getParentToken());
-                    if (connection != null
-                            && (connection.getTerminalSessionInfo().getWebUserName().equals(treq.getWebUserName())
-                            || connection.getTerminalSessionInfo().isVisibleToAll())) {
-                        verified = true;
-                    }
-                } else {
-                    verified = true;
-                }
-            }
-        }
-
-        return verified;
+        return sessionControlService.listSessions(webUserName);
     }
 
     /**
+     * all connections to a device, is anyone on it
      *
-     * @param token
+     * @param host
+     * @param port
+     * @param request
      * @return
      */
-    public static boolean tokenExists(String token) {
-        return tokenMap.containsKey(token);
+    @RequestMapping(value = "/internal/sessions/device", method = RequestMethod.GET)
+    @ResponseBody
+    public List<TerminalSessionInfo> deviceSessions(
+            @RequestParam(name = "host", required = true) String host,
+            @RequestParam(name = "port", required = false) Integer port,
+            HttpServletRequest request) {
+        logger.debug("/internal/sessions/device req from {} for {}:{}",
+                request.getRemoteAddr(), host, port == null ? "ANY" : port);
+
+        return webTerminalService.getTerminalSessionInfoListByHost(host, port);
     }
 
     /**
+     * all connections by someone, unlike /internal/sessions without the
+     * visibleToAll sessions of others
      *
-     * @param token
+     * @param webUserName
+     * @param request
      * @return
      */
-    public static TokenRequest tokenToRequest(String token) {
-        return tokenMap.get(token);
+    @RequestMapping(value = "/internal/sessions/user", method = RequestMethod.GET)
+    @ResponseBody
+    public List<TerminalSessionInfo> userSessions(
+            @RequestParam(name = "user", required = true) String webUserName,
+            HttpServletRequest request) {
+        logger.debug("/internal/sessions/user req from {} for {}", request.getRemoteAddr(), webUserName);
+
+        return webTerminalService.getTerminalSessionInfoListByUser(webUserName);
     }
 
     /**
      *
-     * @param token
+     * @param request
+     * @return
      */
-    public static void tokenRemove(String token) {
-        tokenMap.remove(token);
+    @RequestMapping(value = "/internal/queues", method = RequestMethod.GET)
+    @ResponseBody
+    public List<OutboundQueueInfo> outboundQueues(HttpServletRequest request) {
+        logger.debug("/internal/queues req from {}", request.getRemoteAddr());
+
+        return webTerminalService.getOutboundQueueInfoList();
     }
 
     /**
      *
+     * @param request
+     * @return
      */
-    @Scheduled(cron = "${webterminal.cronTokens}")
-    public void tokenHouseKeeping() {
-        logger.trace("tokenHouseKeeping run, tokenTTL={}", tokenTTL);
-
-        DateTime now = new DateTime();
-        tokenMap.entrySet()
-                .removeIf((Map.Entry<String, TokenRequest> entry) -> {
-                    TokenRequest req = entry.getValue();
-
-                    DateTime dt = parser.parseDateTime(req.getInTime());
-                    Seconds seconds = Seconds.secondsBetween(dt, now);
-                    logger.trace("{} is {} seconds old", entry.getKey(), seconds.getSeconds());
-                    return (seconds.getSeconds() > tokenTTL);
-                });
-
-        logger.trace("tokenHouseKeeping end");
-    }
+    @RequestMapping(value = "/internal/threads", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, List<SessionThreadInfo>> sessionThreads(HttpServletRequest request) {
+        logger.debug("/internal/threads req from {}", request.getRemoteAddr());
 
-    // TODO: more endpoints:
-    //
-    //is someone connected to a particular device?
-    //all connections to a particular device?
-    //all connections by someone?
+        return webTerminalService.getSessionThreadInfoMap();
+    }
 }
@@ -0,0 +1,202 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * outbound queue metrics of one webSocketSession
+ */
+public class OutboundQueueInfo {
+
+    private String sessionId;
+    private String sessionType;
+    private String webUserName;
+    private String policy;
+    private int depth;
+    private int maxDepth;
+    private int capacity;
+    private long sent;
+    private long dropped;
+    private long resyncs;
+
+    /**
+     *
+     * @return
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     *
+     * @param sessionId
+     */
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getSessionType() {
+        return sessionType;
+    }
+
+    /**
+     *
+     * @param sessionType
+     */
+    public void setSessionType(String sessionType) {
+        this.sessionType = sessionType;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getWebUserName() {
+        return webUserName;
+    }
+
+    /**
+     *
+     * @param webUserName
+     */
+    public void setWebUserName(String webUserName) {
+        this.webUserName = webUserName;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getPolicy() {
+        return policy;
+    }
+
+    /**
+     *
+     * @param policy
+     */
+    public void setPolicy(String policy) {
+        this.policy = policy;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     *
+     * @param depth
+     */
+    public void setDepth(int depth) {
+        this.depth = depth;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     *
+     * @param maxDepth
+     */
+    public void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     *
+     * @param capacity
+     */
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getSent() {
+        return sent;
+    }
+
+    /**
+     *
+     * @param sent
+     */
+    public void setSent(long sent) {
+        this.sent = sent;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    /**
+     *
+     * @param dropped
+     */
+    public void setDropped(long dropped) {
+        this.dropped = dropped;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     *
+     * @param resyncs
+     */
+    public void setResyncs(long resyncs) {
+        this.resyncs = resyncs;
+    }
+
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this);
+    }
+}
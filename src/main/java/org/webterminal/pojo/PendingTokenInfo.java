@@ -0,0 +1,180 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * read only view of a pending token, no password, built once when the token
+ * is issued
+ */
+public final class PendingTokenInfo {
+
+    private final String token;
+    private final String sessionType;
+    private final String parentToken;
+    private final String description;
+    private final String host;
+    private final Integer port;
+    private final String connectionType;
+    private final String username;
+    private final String webUserName;
+    private final String webUserRole;
+    private final String webUserIp;
+    private final String inTime;
+    private final long issuedAt;
+
+    /**
+     *
+     * @param token
+     * @param request
+     * @param issuedAt epoch millis
+     */
+    public PendingTokenInfo(String token, TokenRequest request, long issuedAt) {
+        this.token = token;
+        this.sessionType = request.getSessionType();
+        this.parentToken = request.getParentToken();
+        this.description = request.getDescription();
+        this.host = request.getHost();
+        this.port = request.getPort();
+        this.connectionType = request.getConnectionType();
+        this.username = request.getUsername();
+        this.webUserName = request.getWebUserName();
+        this.webUserRole = request.getWebUserRole();
+        this.webUserIp = request.getWebUserIp();
+        this.inTime = request.getInTime();
+        this.issuedAt = issuedAt;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getSessionType() {
+        return sessionType;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getParentToken() {
+        return parentToken;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public Integer getPort() {
+        return port;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getConnectionType() {
+        return connectionType;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getWebUserName() {
+        return webUserName;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getWebUserRole() {
+        return webUserRole;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getWebUserIp() {
+        return webUserIp;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getInTime() {
+        return inTime;
+    }
+
+    /**
+     *
+     * @return epoch millis
+     */
+    public long getIssuedAt() {
+        return issuedAt;
+    }
+
+    /**
+     *
+     * @return seconds since issued
+     */
+    public long getAgeSeconds() {
+        return (System.currentTimeMillis() - issuedAt) / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this);
+    }
+}
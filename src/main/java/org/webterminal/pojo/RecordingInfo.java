@@ -0,0 +1,75 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * a session recording in auditLogDir, for the replay list
+ */
+public final class RecordingInfo {
+
+    private final String name;
+    private final long size;
+    private final String lastModified;
+
+    /**
+     *
+     * @param name file name
+     * @param size bytes
+     * @param lastModified
+     */
+    public RecordingInfo(String name, long size, String lastModified) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this);
+    }
+}
@@ -0,0 +1,87 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * from the replay page: play, pause, seek (value in millis) or speed (value
+ * as a multiplier)
+ */
+public class ReplayControl {
+
+    String action;
+    long value;
+
+    /**
+     *
+     * @param action
+     * @param value
+     */
+    public ReplayControl(String action, long value) {
+        this.action = action;
+        this.value = value;
+    }
+
+    /**
+     *
+     */
+    public ReplayControl() {
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     *
+     * @param action
+     */
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     *
+     * @param value
+     */
+    public void setValue(long value) {
+        this.value = value;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this);
+    }
+}
@@ -0,0 +1,134 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.pojo;
+
+import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+
+/**
+ * one task running for a session, and what it runs on
+ */
+public class SessionThreadInfo {
+
+    private String sessionId;
+    private String kind;
+    private long threadId;
+    private String threadName;
+    private boolean virtual;
+    private long startTime;
+
+    /**
+     *
+     * @return
+     */
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     *
+     * @param sessionId
+     */
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getKind() {
+        return kind;
+    }
+
+    /**
+     *
+     * @param kind
+     */
+    public void setKind(String kind) {
+        this.kind = kind;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getThreadId() {
+        return threadId;
+    }
+
+    /**
+     *
+     * @param threadId
+     */
+    public void setThreadId(long threadId) {
+        this.threadId = threadId;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     *
+     * @param threadName
+     */
+    public void setThreadName(String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     *
+     * @param virtual
+     */
+    public void setVirtual(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     *
+     * @param startTime
+     */
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    @Override
+    public String toString() {
+        return ReflectionToStringBuilder.toString(this);
+    }
+}
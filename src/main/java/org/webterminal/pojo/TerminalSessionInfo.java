@@ -18,13 +18,14 @@
 package org.webterminal.pojo;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import static org.webterminal.constant.Constants.DELTA;
 import static org.webterminal.constant.Constants.JOIN;
 import static org.webterminal.constant.Constants.NEW;
+import static org.webterminal.constant.Constants.REPLAY;
 import static org.webterminal.constant.Constants.SSH_LC;
 import static org.webterminal.constant.Constants.WATCH;
 import static org.webterminal.constant.Constants.TAKE;
 import static org.webterminal.constant.Constants.TN3270_LC;
-import java.io.BufferedWriter;
 import java.util.ArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -41,7 +42,7 @@ public class TerminalSessionInfo {
 
     private volatile boolean suspended = false;
 
-    private String sessionType;          //   NEW/JOIN/TAKE/WATCH, default NEW
+    private String sessionType;          //   NEW/JOIN/TAKE/WATCH/DELTA/REPLAY, default NEW
     private String token;
     private String parentToken;
 
@@ -59,6 +60,7 @@ public class TerminalSessionInfo {
     private String auditLogging;
     private Integer fontSize;
     private volatile boolean visibleToAll;
+    private String recording;            //   REPLAY only
 
     private String inTime;
 
@@ -74,13 +76,27 @@ public class TerminalSessionInfo {
     // sessionId list of children
     private ArrayList<String> children;
 
-    @JsonIgnore
-    private BufferedWriter logWriter;
     @JsonIgnore
     private final Lock lock = new ReentrantLock();
     @JsonIgnore
     private static final Logger logger = LoggerFactory.getLogger(TerminalSessionInfo.class);
 
+    /**
+     *
+     * @return
+     */
+    public String getRecording() {
+        return recording;
+    }
+
+    /**
+     *
+     * @param recording
+     */
+    public void setRecording(String recording) {
+        this.recording = recording;
+    }
+
     /**
      *
      * @return
@@ -293,23 +309,6 @@ public class TerminalSessionInfo {
         this.sessionType = sessionType;
     }
 
-    /**
-     *
-     * @return
-     */
-    @JsonIgnore
-    public BufferedWriter getLogWriter() {
-        return logWriter;
-    }
-
-    /**
-     *
-     * @param logWriter
-     */
-    public void setLogWriter(BufferedWriter logWriter) {
-        this.logWriter = logWriter;
-    }
-
     /**
      *
      * @return
@@ -610,9 +609,18 @@ public class TerminalSessionInfo {
             this.setSessionType(WATCH);
         } else if (req.getSessionType().equalsIgnoreCase(TAKE)) {
             this.setSessionType(TAKE);
+        } else if (req.getSessionType().equalsIgnoreCase(DELTA)) {
+            this.setSessionType(DELTA);
+        } else if (req.getSessionType().equalsIgnoreCase(REPLAY)) {
+            this.setSessionType(REPLAY);
         } else {
             this.setSessionType(NEW);
         }
+        if (this.getSessionType().equals(REPLAY)) {
+            this.setRecording(req.getRecording());
+            this.setAuditLogging("OFF");
+            return;
+        }
         if (!this.getSessionType().equals(NEW)) {
             this.setParentToken(req.getParentToken());
             // don't care about other fields
@@ -662,6 +670,6 @@ public class TerminalSessionInfo {
 
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toStringExclude(this, "password", "logWriter", "lock");
+        return ReflectionToStringBuilder.toStringExclude(this, "password", "lock");
     }
 }
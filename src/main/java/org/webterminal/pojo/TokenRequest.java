@@ -22,8 +22,8 @@ import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
 
 public class TokenRequest {
 
-    private String sessionType;           //  NEW/JOIN/TAKE/WATCH, default NEW
-    private String parentToken;           //  needed if JOIN/WATCH/TAKE
+    private String sessionType;           //  NEW/JOIN/TAKE/WATCH/DELTA/REPLAY, default NEW
+    private String parentToken;           //  needed if JOIN/WATCH/TAKE/DELTA
 
     private String description;
     private String host;
@@ -39,6 +39,7 @@ public class TokenRequest {
     private String auditLogging = "OFF";  // OFF/ON; should be boolean?
     private Integer fontSize = FONTSIZE;
     private boolean visibleToAll = false; // session visiblet to all
+    private String recording;             // file name in auditLogDir, needed if REPLAY
 
     // used on server side only to track age of request
     private String inTime;
@@ -53,6 +54,22 @@ public class TokenRequest {
     private Integer nodeId;
     private Boolean localEcho;
      */
+    /**
+     *
+     * @return
+     */
+    public String getRecording() {
+        return recording;
+    }
+
+    /**
+     *
+     * @param recording
+     */
+    public void setRecording(String recording) {
+        this.recording = recording;
+    }
+
     /**
      *
      * @return
@@ -24,6 +24,7 @@ public class TokenRowsCols {
     String token;
     int rows;
     int cols;
+    int proto;  // highest framing protocol client supports, 0 if not sent
 
     /**
      *
@@ -89,6 +90,22 @@ public class TokenRowsCols {
         this.cols = cols;
     }
 
+    /**
+     *
+     * @return
+     */
+    public int getProto() {
+        return proto;
+    }
+
+    /**
+     *
+     * @param proto
+     */
+    public void setProto(int proto) {
+        this.proto = proto;
+    }
+
     @Override
     public String toString() {
         return ReflectionToStringBuilder.toString(this);
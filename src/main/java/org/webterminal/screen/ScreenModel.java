@@ -0,0 +1,995 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.screen;
+
+import java.util.Arrays;
+
+/**
+ * server side picture of a terminal screen, fed the same output the users
+ * get, so anyone attaching later can be shown a coherent screen instead of a
+ * byte tail. Covers what shells and full screen programs commonly use:
+ * cursor movement, erase, insert/delete, scroll regions, SGR colors and
+ * attributes, alternate screen. Cells are plain int arrays (code point,
+ * packed attribute), parsing is incremental across chunks. Not thread safe,
+ * caller serializes feed/snapshot. Every character is taken as one cell wide
+ */
+public class ScreenModel {
+
+    // packed attribute: fg 9 bits, bg 9 bits (256 = default), then flags
+    static final int COLOR_MASK = 0x1ff;
+    static final int BG_SHIFT = 9;
+    static final int DEFAULT_COLOR = 256;
+    static final int BOLD = 1 << 18;
+    static final int DIM = 1 << 19;
+    static final int ITALIC = 1 << 20;
+    static final int UNDERLINE = 1 << 21;
+    static final int BLINK = 1 << 22;
+    static final int INVERSE = 1 << 23;
+    static final int HIDDEN = 1 << 24;
+    static final int STRIKE = 1 << 25;
+    static final int DEFAULT_ATTR = DEFAULT_COLOR | DEFAULT_COLOR << BG_SHIFT;
+
+    private static final int MAX_PARAMS = 16;
+
+    // parser states
+    private static final int GROUND = 0;
+    private static final int ESCAPE = 1;
+    private static final int ESCAPE_SKIP = 2;
+    private static final int CSI = 3;
+    private static final int STRING = 4;
+    private static final int STRING_ESCAPE = 5;
+
+    private int rows;
+    private int cols;
+
+    private int[] mainChars;
+    private int[] mainAttrs;
+    private int[] altChars;
+    private int[] altAttrs;
+    private boolean altScreen = false;
+
+    // current buffer, main or alt
+    private int[] chars;
+    private int[] attrs;
+
+    private int cursorRow = 0;
+    private int cursorCol = 0;
+    private boolean wrapPending = false;
+    private int attr = DEFAULT_ATTR;
+    private int top = 0;
+    private int bottom;
+    private boolean cursorVisible = true;
+    private boolean autoWrap = true;
+
+    private int savedRow = 0;
+    private int savedCol = 0;
+    private int savedAttr = DEFAULT_ATTR;
+
+    // lines scrolled off the top of main screen, ring
+    private final int[][] scrollbackChars;
+    private final int[][] scrollbackAttrs;
+    private int scrollbackStart = 0;
+    private int scrollbackCount = 0;
+
+    // rows changed since last deltaSinceLast(), screen viewers were last sent
+    private boolean[] dirty;
+    private boolean anyDirty = false;
+    private boolean deltaAltScreen = false;
+
+    private int state = GROUND;
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    private boolean paramStarted;
+    private char csiPrefix;
+    private char highSurrogate;
+
+    /**
+     *
+     * @param rows
+     * @param cols
+     * @param scrollbackLines
+     */
+    public ScreenModel(int rows, int cols, int scrollbackLines) {
+        this.rows = Math.max(1, rows);
+        this.cols = Math.max(1, cols);
+        this.bottom = this.rows - 1;
+        this.mainChars = new int[this.rows * this.cols];
+        this.mainAttrs = new int[this.rows * this.cols];
+        Arrays.fill(mainAttrs, DEFAULT_ATTR);
+        this.chars = mainChars;
+        this.attrs = mainAttrs;
+        this.scrollbackChars = new int[Math.max(0, scrollbackLines)][];
+        this.scrollbackAttrs = new int[Math.max(0, scrollbackLines)][];
+        this.dirty = new boolean[this.rows];
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    int getCursorRow() {
+        return cursorRow;
+    }
+
+    int getCursorCol() {
+        return cursorCol;
+    }
+
+    boolean isAltScreen() {
+        return altScreen;
+    }
+
+    // text of a screen row, trailing blanks dropped
+    String lineAt(int row) {
+        StringBuilder sb = new StringBuilder(cols);
+        for (int i = row * cols; i < (row + 1) * cols; i++) {
+            sb.appendCodePoint(chars[i] == 0 ? ' ' : chars[i]);
+        }
+        int end = sb.length();
+        while (end > 0 && sb.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return sb.substring(0, end);
+    }
+
+    /**
+     * next piece of output, may end anywhere, even mid escape sequence
+     *
+     * @param text
+     */
+    public void feed(CharSequence text) {
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char ch = text.charAt(i);
+            if (Character.isHighSurrogate(ch)) {
+                highSurrogate = ch;
+                continue;
+            }
+            if (highSurrogate != 0) {
+                int c = Character.isLowSurrogate(ch) ? Character.toCodePoint(highSurrogate, ch) : ch;
+                highSurrogate = 0;
+                process(c);
+            } else {
+                process(ch);
+            }
+        }
+    }
+
+    private void process(int c) {
+        switch (state) {
+            case GROUND:
+                if (c < 0x20) {
+                    control(c);
+                } else if (c < 0x7f || c > 0x9f) {
+                    print(c);
+                }
+                break;
+            case ESCAPE:
+                escape(c);
+                break;
+            case ESCAPE_SKIP:
+                // charset designation etc, one more char
+                state = GROUND;
+                break;
+            case CSI:
+                csi(c);
+                break;
+            case STRING:
+                if (c == 0x07) {
+                    state = GROUND;
+                } else if (c == 0x1b) {
+                    state = STRING_ESCAPE;
+                }
+                break;
+            case STRING_ESCAPE:
+                // ESC \ ends it, any other escape ends it too and starts anew
+                if (c == '\\') {
+                    state = GROUND;
+                } else {
+                    escape(c);
+                }
+                break;
+            default:
+                state = GROUND;
+                break;
+        }
+    }
+
+    private void control(int c) {
+        switch (c) {
+            case 0x08:
+                if (cursorCol > 0) {
+                    cursorCol--;
+                }
+                wrapPending = false;
+                break;
+            case 0x09:
+                cursorCol = Math.min(cols - 1, (cursorCol / 8 + 1) * 8);
+                wrapPending = false;
+                break;
+            case 0x0a:
+            case 0x0b:
+            case 0x0c:
+                lineFeed();
+                break;
+            case 0x0d:
+                cursorCol = 0;
+                wrapPending = false;
+                break;
+            case 0x1b:
+                state = ESCAPE;
+                break;
+            default:
+                // BEL, SO, SI etc. don't change the screen
+                break;
+        }
+    }
+
+    private void escape(int c) {
+        state = GROUND;
+        switch (c) {
+            case '[':
+                startCsi();
+                break;
+            case ']':
+            case 'P':
+            case 'X':
+            case '^':
+            case '_':
+                state = STRING;
+                break;
+            case '(':
+            case ')':
+            case '*':
+            case '+':
+            case '#':
+            case '%':
+                state = ESCAPE_SKIP;
+                break;
+            case '7':
+                saveCursor();
+                break;
+            case '8':
+                restoreCursor();
+                break;
+            case 'D':
+                lineFeed();
+                break;
+            case 'E':
+                cursorCol = 0;
+                lineFeed();
+                break;
+            case 'M':
+                reverseIndex();
+                break;
+            case 'c':
+                reset();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void startCsi() {
+        state = CSI;
+        paramCount = 0;
+        paramStarted = false;
+        csiPrefix = 0;
+        Arrays.fill(params, 0);
+    }
+
+    private void csi(int c) {
+        if (c >= '0' && c <= '9') {
+            if (paramCount < MAX_PARAMS) {
+                params[paramCount] = Math.min(params[paramCount] * 10 + (c - '0'), 65535);
+            }
+            paramStarted = true;
+        } else if (c == ';' || c == ':') {
+            if (paramCount < MAX_PARAMS) {
+                paramCount++;
+            }
+            paramStarted = false;
+        } else if (c >= '<' && c <= '?') {
+            csiPrefix = (char) c;
+        } else if (c >= 0x20 && c <= 0x2f) {
+            // intermediates, none of ours use them
+            csiPrefix = csiPrefix == 0 ? (char) c : csiPrefix;
+        } else if (c >= 0x40 && c <= 0x7e) {
+            if (paramStarted || paramCount > 0) {
+                paramCount = Math.min(paramCount + 1, MAX_PARAMS);
+            }
+            state = GROUND;
+            dispatch(c);
+        } else if (c == 0x1b) {
+            state = ESCAPE;
+        } else if (c < 0x20) {
+            control(c);
+        }
+    }
+
+    private int param(int index, int defaultValue) {
+        return index < paramCount && params[index] != 0 ? params[index] : defaultValue;
+    }
+
+    private void dispatch(int c) {
+        if (csiPrefix == '?') {
+            if (c == 'h' || c == 'l') {
+                for (int i = 0; i < paramCount; i++) {
+                    privateMode(params[i], c == 'h');
+                }
+            }
+            return;
+        }
+        if (csiPrefix != 0) {
+            return;
+        }
+
+        int n = param(0, 1);
+        switch (c) {
+            case '@':
+                insertChars(n);
+                break;
+            case 'A':
+                moveTo(cursorRow - n, cursorCol);
+                break;
+            case 'B':
+            case 'e':
+                moveTo(cursorRow + n, cursorCol);
+                break;
+            case 'C':
+            case 'a':
+                moveTo(cursorRow, cursorCol + n);
+                break;
+            case 'D':
+                moveTo(cursorRow, cursorCol - n);
+                break;
+            case 'E':
+                moveTo(cursorRow + n, 0);
+                break;
+            case 'F':
+                moveTo(cursorRow - n, 0);
+                break;
+            case 'G':
+            case '`':
+                moveTo(cursorRow, n - 1);
+                break;
+            case 'H':
+            case 'f':
+                moveTo(param(0, 1) - 1, param(1, 1) - 1);
+                break;
+            case 'd':
+                moveTo(n - 1, cursorCol);
+                break;
+            case 'J':
+                eraseInDisplay(param(0, 0));
+                break;
+            case 'K':
+                eraseInLine(param(0, 0));
+                break;
+            case 'L':
+                if (cursorRow >= top && cursorRow <= bottom) {
+                    scrollDown(cursorRow, bottom, n);
+                }
+                break;
+            case 'M':
+                if (cursorRow >= top && cursorRow <= bottom) {
+                    scrollUp(cursorRow, bottom, n, false);
+                }
+                break;
+            case 'P':
+                deleteChars(n);
+                break;
+            case 'X':
+                clear(cursorRow, cursorCol, Math.min(cursorCol + n, cols));
+                break;
+            case 'S':
+                scrollUp(top, bottom, n, true);
+                break;
+            case 'T':
+                scrollDown(top, bottom, n);
+                break;
+            case 'm':
+                sgr();
+                break;
+            case 'r':
+                setScrollRegion(param(0, 1) - 1, param(1, rows) - 1);
+                break;
+            case 's':
+                saveCursor();
+                break;
+            case 'u':
+                restoreCursor();
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void privateMode(int mode, boolean set) {
+        switch (mode) {
+            case 7:
+                autoWrap = set;
+                break;
+            case 25:
+                cursorVisible = set;
+                break;
+            case 47:
+            case 1047:
+                switchScreen(set, false);
+                break;
+            case 1049:
+                if (set) {
+                    saveCursor();
+                    switchScreen(true, true);
+                } else {
+                    switchScreen(false, false);
+                    restoreCursor();
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void switchScreen(boolean alt, boolean clear) {
+        if (alt == altScreen) {
+            return;
+        }
+        if (alt) {
+            if (altChars == null) {
+                altChars = new int[rows * cols];
+                altAttrs = new int[rows * cols];
+                clear = true;
+            }
+            chars = altChars;
+            attrs = altAttrs;
+        } else {
+            chars = mainChars;
+            attrs = mainAttrs;
+        }
+        altScreen = alt;
+        if (clear) {
+            Arrays.fill(chars, 0);
+            Arrays.fill(attrs, DEFAULT_ATTR);
+        }
+        markAllDirty();
+    }
+
+    private void sgr() {
+        if (paramCount == 0) {
+            attr = DEFAULT_ATTR;
+            return;
+        }
+        for (int i = 0; i < paramCount; i++) {
+            int p = params[i];
+            if (p == 0) {
+                attr = DEFAULT_ATTR;
+            } else if (p == 1) {
+                attr |= BOLD;
+            } else if (p == 2) {
+                attr |= DIM;
+            } else if (p == 3) {
+                attr |= ITALIC;
+            } else if (p == 4) {
+                attr |= UNDERLINE;
+            } else if (p == 5 || p == 6) {
+                attr |= BLINK;
+            } else if (p == 7) {
+                attr |= INVERSE;
+            } else if (p == 8) {
+                attr |= HIDDEN;
+            } else if (p == 9) {
+                attr |= STRIKE;
+            } else if (p == 21 || p == 22) {
+                attr &= ~(BOLD | DIM);
+            } else if (p == 23) {
+                attr &= ~ITALIC;
+            } else if (p == 24) {
+                attr &= ~UNDERLINE;
+            } else if (p == 25) {
+                attr &= ~BLINK;
+            } else if (p == 27) {
+                attr &= ~INVERSE;
+            } else if (p == 28) {
+                attr &= ~HIDDEN;
+            } else if (p == 29) {
+                attr &= ~STRIKE;
+            } else if (p >= 30 && p <= 37) {
+                setFg(p - 30);
+            } else if (p == 38 || p == 48) {
+                int color = DEFAULT_COLOR;
+                if (i + 2 < paramCount && params[i + 1] == 5) {
+                    color = params[i + 2] & 0xff;
+                    i += 2;
+                } else if (i + 4 < paramCount && params[i + 1] == 2) {
+                    color = toPalette(params[i + 2], params[i + 3], params[i + 4]);
+                    i += 4;
+                } else {
+                    i = paramCount;
+                }
+                if (p == 38) {
+                    setFg(color);
+                } else {
+                    setBg(color);
+                }
+            } else if (p == 39) {
+                setFg(DEFAULT_COLOR);
+            } else if (p >= 40 && p <= 47) {
+                setBg(p - 40);
+            } else if (p == 49) {
+                setBg(DEFAULT_COLOR);
+            } else if (p >= 90 && p <= 97) {
+                setFg(p - 90 + 8);
+            } else if (p >= 100 && p <= 107) {
+                setBg(p - 100 + 8);
+            }
+        }
+    }
+
+    // true color to nearest of the 6x6x6 cube
+    private static int toPalette(int r, int g, int b) {
+        return 16 + 36 * Math.round(Math.min(r, 255) / 51f)
+                + 6 * Math.round(Math.min(g, 255) / 51f)
+                + Math.round(Math.min(b, 255) / 51f);
+    }
+
+    private void setFg(int color) {
+        attr = (attr & ~COLOR_MASK) | color;
+    }
+
+    private void setBg(int color) {
+        attr = (attr & ~(COLOR_MASK << BG_SHIFT)) | color << BG_SHIFT;
+    }
+
+    // erased cells keep current background, like xterm
+    private int eraseAttr() {
+        return DEFAULT_COLOR | (attr & (COLOR_MASK << BG_SHIFT));
+    }
+
+    private void print(int c) {
+        if (wrapPending) {
+            if (autoWrap) {
+                cursorCol = 0;
+                lineFeed();
+            }
+            wrapPending = false;
+        }
+        int index = cursorRow * cols + cursorCol;
+        chars[index] = c;
+        attrs[index] = attr;
+        markDirty(cursorRow);
+        if (cursorCol == cols - 1) {
+            wrapPending = true;
+        } else {
+            cursorCol++;
+        }
+    }
+
+    private void lineFeed() {
+        wrapPending = false;
+        if (cursorRow == bottom) {
+            scrollUp(top, bottom, 1, true);
+        } else if (cursorRow < rows - 1) {
+            cursorRow++;
+        }
+    }
+
+    private void reverseIndex() {
+        wrapPending = false;
+        if (cursorRow == top) {
+            scrollDown(top, bottom, 1);
+        } else if (cursorRow > 0) {
+            cursorRow--;
+        }
+    }
+
+    private void moveTo(int row, int col) {
+        cursorRow = Math.max(0, Math.min(rows - 1, row));
+        cursorCol = Math.max(0, Math.min(cols - 1, col));
+        wrapPending = false;
+    }
+
+    private void setScrollRegion(int newTop, int newBottom) {
+        newBottom = Math.min(newBottom, rows - 1);
+        if (newTop < newBottom) {
+            top = newTop;
+            bottom = newBottom;
+            moveTo(0, 0);
+        }
+    }
+
+    /**
+     * rows from..to move up n, lines leaving the top of the full main screen
+     * go to scrollback
+     */
+    private void scrollUp(int from, int to, int n, boolean keep) {
+        n = Math.min(n, to - from + 1);
+        if (keep && from == 0 && !altScreen) {
+            for (int i = 0; i < n; i++) {
+                pushScrollback(i);
+            }
+        }
+        System.arraycopy(chars, (from + n) * cols, chars, from * cols, (to - from + 1 - n) * cols);
+        System.arraycopy(attrs, (from + n) * cols, attrs, from * cols, (to - from + 1 - n) * cols);
+        int erase = eraseAttr();
+        for (int row = to - n + 1; row <= to; row++) {
+            Arrays.fill(chars, row * cols, (row + 1) * cols, 0);
+            Arrays.fill(attrs, row * cols, (row + 1) * cols, erase);
+        }
+        markDirty(from, to);
+    }
+
+    private void scrollDown(int from, int to, int n) {
+        n = Math.min(n, to - from + 1);
+        System.arraycopy(chars, from * cols, chars, (from + n) * cols, (to - from + 1 - n) * cols);
+        System.arraycopy(attrs, from * cols, attrs, (from + n) * cols, (to - from + 1 - n) * cols);
+        int erase = eraseAttr();
+        for (int row = from; row < from + n; row++) {
+            Arrays.fill(chars, row * cols, (row + 1) * cols, 0);
+            Arrays.fill(attrs, row * cols, (row + 1) * cols, erase);
+        }
+        markDirty(from, to);
+    }
+
+    private void pushScrollback(int row) {
+        int capacity = scrollbackChars.length;
+        if (capacity == 0) {
+            return;
+        }
+        int slot = (scrollbackStart + scrollbackCount) % capacity;
+        if (scrollbackCount == capacity) {
+            slot = scrollbackStart;
+            scrollbackStart = (scrollbackStart + 1) % capacity;
+        } else {
+            scrollbackCount++;
+        }
+        // reuse slot arrays unless width changed
+        if (scrollbackChars[slot] == null || scrollbackChars[slot].length != cols) {
+            scrollbackChars[slot] = new int[cols];
+            scrollbackAttrs[slot] = new int[cols];
+        }
+        System.arraycopy(chars, row * cols, scrollbackChars[slot], 0, cols);
+        System.arraycopy(attrs, row * cols, scrollbackAttrs[slot], 0, cols);
+    }
+
+    private void clear(int row, int fromCol, int toCol) {
+        if (fromCol < toCol) {
+            Arrays.fill(chars, row * cols + fromCol, row * cols + toCol, 0);
+            Arrays.fill(attrs, row * cols + fromCol, row * cols + toCol, eraseAttr());
+            markDirty(row);
+        }
+    }
+
+    private void eraseInLine(int mode) {
+        if (mode == 0) {
+            clear(cursorRow, cursorCol, cols);
+        } else if (mode == 1) {
+            clear(cursorRow, 0, cursorCol + 1);
+        } else {
+            clear(cursorRow, 0, cols);
+        }
+    }
+
+    private void eraseInDisplay(int mode) {
+        if (mode == 0) {
+            clear(cursorRow, cursorCol, cols);
+            for (int row = cursorRow + 1; row < rows; row++) {
+                clear(row, 0, cols);
+            }
+        } else if (mode == 1) {
+            for (int row = 0; row < cursorRow; row++) {
+                clear(row, 0, cols);
+            }
+            clear(cursorRow, 0, cursorCol + 1);
+        } else {
+            for (int row = 0; row < rows; row++) {
+                clear(row, 0, cols);
+            }
+            if (mode == 3) {
+                scrollbackCount = 0;
+            }
+        }
+    }
+
+    private void insertChars(int n) {
+        int start = cursorRow * cols + cursorCol;
+        int end = (cursorRow + 1) * cols;
+        n = Math.min(n, end - start);
+        System.arraycopy(chars, start, chars, start + n, end - start - n);
+        System.arraycopy(attrs, start, attrs, start + n, end - start - n);
+        clear(cursorRow, cursorCol, cursorCol + n);
+    }
+
+    private void deleteChars(int n) {
+        int start = cursorRow * cols + cursorCol;
+        int end = (cursorRow + 1) * cols;
+        n = Math.min(n, end - start);
+        System.arraycopy(chars, start + n, chars, start, end - start - n);
+        System.arraycopy(attrs, start + n, attrs, start, end - start - n);
+        clear(cursorRow, cols - n, cols);
+    }
+
+    private void saveCursor() {
+        savedRow = cursorRow;
+        savedCol = cursorCol;
+        savedAttr = attr;
+    }
+
+    private void restoreCursor() {
+        moveTo(savedRow, savedCol);
+        attr = savedAttr;
+    }
+
+    private void reset() {
+        switchScreen(false, false);
+        Arrays.fill(chars, 0);
+        Arrays.fill(attrs, DEFAULT_ATTR);
+        attr = DEFAULT_ATTR;
+        top = 0;
+        bottom = rows - 1;
+        cursorVisible = true;
+        autoWrap = true;
+        moveTo(0, 0);
+        markAllDirty();
+    }
+
+    /**
+     * keeps what fits, top lines pushed to scrollback if cursor would fall
+     * off the bottom
+     *
+     * @param newRows
+     * @param newCols
+     */
+    public void resize(int newRows, int newCols) {
+        newRows = Math.max(1, newRows);
+        newCols = Math.max(1, newCols);
+        if (newRows == rows && newCols == cols) {
+            return;
+        }
+
+        int shift = Math.max(0, cursorRow - newRows + 1);
+        if (!altScreen) {
+            for (int i = 0; i < shift; i++) {
+                pushScrollback(i);
+            }
+        }
+        mainChars = copyScreen(mainChars, newRows, newCols, altScreen ? 0 : shift, 0);
+        mainAttrs = copyScreen(mainAttrs, newRows, newCols, altScreen ? 0 : shift, DEFAULT_ATTR);
+        if (altChars != null) {
+            altChars = copyScreen(altChars, newRows, newCols, altScreen ? shift : 0, 0);
+            altAttrs = copyScreen(altAttrs, newRows, newCols, altScreen ? shift : 0, DEFAULT_ATTR);
+        }
+        chars = altScreen ? altChars : mainChars;
+        attrs = altScreen ? altAttrs : mainAttrs;
+
+        rows = newRows;
+        cols = newCols;
+        top = 0;
+        bottom = rows - 1;
+        dirty = new boolean[rows];
+        moveTo(cursorRow - shift, cursorCol);
+        savedRow = Math.min(savedRow, rows - 1);
+        savedCol = Math.min(savedCol, cols - 1);
+        markAllDirty();
+    }
+
+    private int[] copyScreen(int[] old, int newRows, int newCols, int fromRow, int fill) {
+        int[] screen = new int[newRows * newCols];
+        Arrays.fill(screen, fill);
+        int copyRows = Math.min(newRows, rows - fromRow);
+        int copyCols = Math.min(newCols, cols);
+        for (int row = 0; row < copyRows; row++) {
+            System.arraycopy(old, (row + fromRow) * cols, screen, row * newCols, copyCols);
+        }
+        return screen;
+    }
+
+    private void markDirty(int row) {
+        dirty[row] = true;
+        anyDirty = true;
+    }
+
+    private void markDirty(int from, int to) {
+        for (int row = from; row <= to; row++) {
+            dirty[row] = true;
+        }
+        anyDirty = true;
+    }
+
+    private void markAllDirty() {
+        markDirty(0, rows - 1);
+    }
+
+    /**
+     * escape sequences that redraw this screen on a terminal of the same
+     * size: scrollback tail, main screen, saved cursor, alternate screen if
+     * active, scroll region, cursor and current attributes. Whatever the
+     * viewer had on screen is scrolled up into its history first, not wiped
+     *
+     * @return
+     */
+    public String snapshot() {
+        StringBuilder sb = new StringBuilder((rows + scrollbackCount) * (cols + 16));
+        sb.append("\u001b[0m\u001b[r\u001b[?7h\u001b[?25h\r");
+
+        int capacity = scrollbackChars.length;
+        for (int i = 0; i < scrollbackCount; i++) {
+            int slot = (scrollbackStart + i) % capacity;
+            appendLine(sb, scrollbackChars[slot], scrollbackAttrs[slot], 0, scrollbackChars[slot].length);
+            sb.append("\r\n");
+        }
+        // a screenful of line feeds moves everything above into history
+        for (int row = 0; row < rows; row++) {
+            sb.append('\n');
+        }
+        sb.append("\u001b[H\u001b[2J");
+        for (int row = 0; row < rows; row++) {
+            sb.append("\u001b[").append(row + 1).append(";1H");
+            appendLine(sb, mainChars, mainAttrs, row * cols, cols);
+        }
+
+        // so the viewer's next restore (ESC 8, CSI u, leaving 1049) lands
+        // where ours would; entering 1049 saves the same again
+        sb.append("\u001b[").append(savedRow + 1).append(';').append(savedCol + 1).append('H');
+        appendSgr(sb, savedAttr);
+        sb.append("\u001b7");
+
+        if (altScreen) {
+            sb.append("\u001b[?1049h\u001b[H\u001b[2J");
+            for (int row = 0; row < rows; row++) {
+                sb.append("\u001b[").append(row + 1).append(";1H");
+                appendLine(sb, altChars, altAttrs, row * cols, cols);
+            }
+        }
+
+        if (top != 0 || bottom != rows - 1) {
+            sb.append("\u001b[").append(top + 1).append(';').append(bottom + 1).append('r');
+        }
+        sb.append("\u001b[").append(cursorRow + 1).append(';').append(cursorCol + 1).append('H');
+        appendSgr(sb, attr);
+        if (!cursorVisible) {
+            sb.append("\u001b[?25l");
+        }
+        if (!autoWrap) {
+            sb.append("\u001b[?7l");
+        }
+        return sb.toString();
+    }
+
+    /**
+     *
+     * @return true if any row changed since last delta
+     */
+    public boolean hasDirtyRows() {
+        return anyDirty;
+    }
+
+    /**
+     * changed rows only, each redrawn in place, then cursor. Size of the
+     * result is bounded by screen size no matter how much output went by
+     *
+     * @return
+     */
+    public String deltaSinceLast() {
+        StringBuilder sb = new StringBuilder(cols + 32);
+        // switching screens marks all rows dirty, so all get redrawn
+        if (altScreen != deltaAltScreen) {
+            deltaAltScreen = altScreen;
+            sb.append(altScreen ? "\u001b[?1049h" : "\u001b[?1049l");
+        }
+        // hide cursor while rows are drawn
+        sb.append("\u001b[?25l");
+        for (int row = 0; row < rows; row++) {
+            if (dirty[row]) {
+                sb.append("\u001b[").append(row + 1).append(";1H");
+                appendLine(sb, chars, attrs, row * cols, cols);
+                sb.append("\u001b[K");
+            }
+        }
+        Arrays.fill(dirty, false);
+        anyDirty = false;
+
+        sb.append("\u001b[").append(cursorRow + 1).append(';').append(cursorCol + 1).append('H');
+        appendSgr(sb, attr);
+        if (cursorVisible) {
+            sb.append("\u001b[?25h");
+        }
+        return sb.toString();
+    }
+
+    private static void appendLine(StringBuilder sb, int[] lineChars, int[] lineAttrs, int start, int width) {
+        // trailing blank default cells needn't be drawn
+        int end = start + width;
+        while (end > start && lineChars[end - 1] == 0 && lineAttrs[end - 1] == DEFAULT_ATTR) {
+            end--;
+        }
+        int current = DEFAULT_ATTR;
+        for (int i = start; i < end; i++) {
+            if (lineAttrs[i] != current) {
+                current = lineAttrs[i];
+                appendSgr(sb, current);
+            }
+            int c = lineChars[i];
+            if (c == 0) {
+                sb.append(' ');
+            } else {
+                sb.appendCodePoint(c);
+            }
+        }
+        if (current != DEFAULT_ATTR) {
+            sb.append("\u001b[0m");
+        }
+    }
+
+    private static void appendSgr(StringBuilder sb, int a) {
+        sb.append("\u001b[0");
+        if ((a & BOLD) != 0) {
+            sb.append(";1");
+        }
+        if ((a & DIM) != 0) {
+            sb.append(";2");
+        }
+        if ((a & ITALIC) != 0) {
+            sb.append(";3");
+        }
+        if ((a & UNDERLINE) != 0) {
+            sb.append(";4");
+        }
+        if ((a & BLINK) != 0) {
+            sb.append(";5");
+        }
+        if ((a & INVERSE) != 0) {
+            sb.append(";7");
+        }
+        if ((a & HIDDEN) != 0) {
+            sb.append(";8");
+        }
+        if ((a & STRIKE) != 0) {
+            sb.append(";9");
+        }
+        appendColor(sb, a & COLOR_MASK, 30, 90, 38);
+        appendColor(sb, (a >> BG_SHIFT) & COLOR_MASK, 40, 100, 48);
+        sb.append('m');
+    }
+
+    private static void appendColor(StringBuilder sb, int color, int base, int brightBase, int extended) {
+        if (color == DEFAULT_COLOR) {
+            return;
+        }
+        sb.append(';');
+        if (color < 8) {
+            sb.append(base + color);
+        } else if (color < 16) {
+            sb.append(brightBase + color - 8);
+        } else {
+            sb.append(extended).append(";5;").append(color);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.service;
+
+import java.util.List;
+import java.util.Map;
+import org.webterminal.pojo.PendingTokenInfo;
+import org.webterminal.pojo.RecordingInfo;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.pojo.TokenRequest;
+import org.webterminal.pojo.TokenResponse;
+
+/**
+ * session control, independent of transport: the JumpBox UI calls it in
+ * process, /internal/* REST endpoints are adapters for outside callers
+ */
+public interface SessionControlService {
+
+    /**
+     * validate, check ACL, then issue a one time token
+     *
+     * @param treq
+     * @return token as payload on success, reason otherwise
+     */
+    public TokenResponse issueToken(TokenRequest treq);
+
+    /**
+     *
+     * @param webUserName null for all
+     * @return own sessions plus visibleToAll ones of others
+     */
+    public List<TerminalSessionInfo> listSessions(String webUserName);
+
+    /**
+     * ADMIN can drop any session, others only their own
+     *
+     * @param token
+     * @param webUserName
+     * @param webUserRole
+     * @return
+     */
+    public Map dropSession(String token, String webUserName, String webUserRole);
+
+    /**
+     * tokens issued not used yet, oldest first, signed tokens not included
+     *
+     * @param webUserName null for any
+     * @param host null for any
+     * @param minAgeSeconds 0 for any
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public List<PendingTokenInfo> getPendingTokens(String webUserName, String host, int minAgeSeconds, int offset, int limit);
+
+    /**
+     * session recordings to replay, newest first
+     *
+     * @param webUserName null for all
+     * @return own recordings only unless null
+     */
+    public List<RecordingInfo> listRecordings(String webUserName);
+}
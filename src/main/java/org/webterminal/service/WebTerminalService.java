@@ -17,7 +17,10 @@
  */
 package org.webterminal.service;
 
+import org.webterminal.pojo.OutboundQueueInfo;
+import org.webterminal.pojo.SessionThreadInfo;
 import org.webterminal.pojo.TerminalSessionInfo;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 import org.springframework.web.socket.WebSocketSession;
@@ -37,6 +40,14 @@ public interface WebTerminalService {
      */
     public void textMessageHandler(String buffer, WebSocketSession session);
 
+    /**
+     * binary frames, protocol v1 only
+     *
+     * @param buffer
+     * @param session
+     */
+    public void binaryMessageHandler(ByteBuffer buffer, WebSocketSession session);
+
     /**
      *
      * @param webUserName
@@ -44,6 +55,33 @@ public interface WebTerminalService {
      */
     public List<TerminalSessionInfo> getTerminalSessionInfoList(String webUserName);
 
+    /**
+     *
+     * @param host
+     * @param port null for any port
+     * @return sessions to a backend device, JOIN/WATCH included
+     */
+    public List<TerminalSessionInfo> getTerminalSessionInfoListByHost(String host, Integer port);
+
+    /**
+     *
+     * @param webUserName
+     * @return sessions of one web user, JOIN/WATCH included
+     */
+    public List<TerminalSessionInfo> getTerminalSessionInfoListByUser(String webUserName);
+
+    /**
+     *
+     * @return outbound queue metrics per webSocketSession
+     */
+    public List<OutboundQueueInfo> getOutboundQueueInfoList();
+
+    /**
+     *
+     * @return running tasks per session, and the threads they run on
+     */
+    public Map<String, List<SessionThreadInfo>> getSessionThreadInfoMap();
+
     /**
      *
      * @param token
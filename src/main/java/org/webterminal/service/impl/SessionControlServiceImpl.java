@@ -0,0 +1,373 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.service.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+//import com.fasterxml.uuid.EthernetAddress;
+//import com.fasterxml.uuid.Generators;
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.webterminal.connection.Connection;
+import static org.webterminal.constant.Constants.*;
+import org.webterminal.pojo.PendingTokenInfo;
+import org.webterminal.pojo.RecordingInfo;
+import org.webterminal.pojo.TerminalSessionInfo;
+import org.webterminal.pojo.TokenRequest;
+import org.webterminal.pojo.TokenResponse;
+import org.webterminal.service.SessionControlService;
+import org.webterminal.service.WebTerminalService;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.getTimingWheel;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.rootSessionInfo;
+import static org.webterminal.service.impl.WebTerminalServiceImpl.tokenToRootConnection;
+import org.webterminal.util.ReplayCache;
+import org.webterminal.util.SessionRecording;
+import org.webterminal.util.TokenCodec;
+import org.webterminal.util.TokenStore;
+
+@Service
+public class SessionControlServiceImpl implements SessionControlService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionControlServiceImpl.class);
+    private static volatile TokenStore tokenStore;
+    // only set when webterminal.tokenSecret is
+    private static volatile TokenCodec tokenCodec;
+    private static volatile ReplayCache replayCache;
+    private static final DateTimeFormatter parser = ISODateTimeFormat.dateTimeNoMillis();
+
+    @Autowired
+    private WebTerminalService webTerminalService;
+
+    @Value("${webterminal.tokenTTL}")
+    private int tokenTTL;
+
+    // pending tokens at most, beyond that /internal/token is refused
+    @Value("${webterminal.tokenCapacity:10000}")
+    private int tokenCapacity;
+
+    // empty: tokens kept in memory here; set: signed self contained tokens
+    @Value("${webterminal.tokenSecret:}")
+    private String tokenSecret;
+
+    // recordings to replay are found here
+    @Value("${webterminal.auditLogDir}")
+    private String auditLogDir;
+
+    /**
+     *
+     * @throws GeneralSecurityException
+     */
+    @PostConstruct
+    public void init() throws GeneralSecurityException {
+        tokenStore = new TokenStore(tokenTTL, tokenCapacity, getTimingWheel());
+        if (StringUtils.isNotEmpty(tokenSecret)) {
+            tokenCodec = new TokenCodec(tokenSecret);
+            replayCache = new ReplayCache(tokenCapacity, getTimingWheel());
+            logger.info("signed tokens enabled");
+        }
+    }
+
+    /**
+     *
+     * @param treq
+     * @return
+     */
+    @Override
+    public TokenResponse issueToken(TokenRequest treq) {
+        // TOOD: better sanity check of treq?
+
+        // minimal required:
+        //   host
+        //   username if ssh
+        //
+        //   force usePty to true if ssh and password not provided, or tn3270
+        //
+        if ((treq.getSessionType() != null
+                && (treq.getSessionType().equalsIgnoreCase(JOIN)
+                || treq.getSessionType().equalsIgnoreCase(TAKE)
+                || treq.getSessionType().equalsIgnoreCase(WATCH)
+                || treq.getSessionType().equalsIgnoreCase(DELTA))
+                && StringUtils.isNotEmpty(treq.getParentToken()))
+                || (treq.getSessionType() != null
+                && treq.getSessionType().equalsIgnoreCase(REPLAY)
+                && isRecording(treq.getRecording()))
+                || StringUtils.isNotEmpty(treq.getHost())
+                && (treq.getConnectionType().equalsIgnoreCase(TELNET_LC)
+                || treq.getConnectionType().equalsIgnoreCase(TN3270_LC)
+                || treq.getConnectionType().equalsIgnoreCase(SSH_LC)
+                && StringUtils.isNotEmpty(treq.getUsername()))) {
+
+            // overwrite in time always
+            String tstr = new DateTime().toString(parser);
+            treq.setInTime(tstr);
+
+            if (StringUtils.isEmpty(treq.getSessionType())) {
+                treq.setSessionType(NEW);
+            }
+
+            if (okToIssueToken(treq)) {
+                if (tokenCodec != null) {
+                    return signedToken(treq);
+                }
+
+                String token = UUID.randomUUID().toString();
+                // String token = Generators.timeBasedGenerator( EthernetAddress.fromInterface() ).generate().toString();
+
+                if (!tokenStore.put(token, treq)) {
+                    logger.warn("token refused, {} pending at capacity", tokenStore.size());
+
+                    return new TokenResponse("failure", "Too Many Pending Tokens");
+                }
+
+                logger.debug("TOKEN: {} returned for {}", token, treq.toString());
+
+                return new TokenResponse("success", token);
+            }
+        }
+
+        return new TokenResponse("failure", "Invalid Request");
+    }
+
+    /**
+     *
+     * @param webUserName
+     * @return
+     */
+    @Override
+    public List<TerminalSessionInfo> listSessions(String webUserName) {
+        return webTerminalService.getTerminalSessionInfoList(webUserName);
+    }
+
+    /**
+     *
+     * @param token
+     * @param webUserName
+     * @param webUserRole
+     * @return
+     */
+    @Override
+    public Map dropSession(String token, String webUserName, String webUserRole) {
+        boolean verified = false;
+
+        // ACL:
+        // webUserRole "ROLE_ADMIN"
+        // token's connection getWebUserName() same as webUserName
+        if ("ROLE_ADMIN".equals(webUserRole)) {
+            verified = true;
+        } else {
+            Connection connection = tokenToRootConnection(token);
+            if (connection != null
+                    && connection.getTerminalSessionInfo().getWebUserName().equals(webUserName)) {
+                verified = true;
+            }
+        }
+
+        if (verified) {
+            return webTerminalService.dropSession(token);
+        } else {
+            return Collections.singletonMap("status", "FAILURE: KILL " + token + " NOT ALLOWED");
+        }
+    }
+
+    /**
+     *
+     * @param webUserName
+     * @param host
+     * @param minAgeSeconds
+     * @param offset
+     * @param limit
+     * @return
+     */
+    @Override
+    public List<PendingTokenInfo> getPendingTokens(String webUserName, String host, int minAgeSeconds, int offset, int limit) {
+        return tokenStore.pending(webUserName, host, minAgeSeconds, offset, limit);
+    }
+
+    /**
+     *
+     * @param webUserName
+     * @return
+     */
+    @Override
+    public List<RecordingInfo> listRecordings(String webUserName) {
+        List<RecordingInfo> list = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(auditLogDir), "*" + SessionRecording.EXTENSION)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (webUserName == null || isOwnRecording(path, webUserName)) {
+                    list.add(new RecordingInfo(name, Files.size(path),
+                            new DateTime(Files.getLastModifiedTime(path).toMillis()).toString(parser)));
+                }
+            }
+        } catch (IOException ex) {
+            logger.warn("listRecordings exception: {}", ex.getMessage());
+        }
+        list.sort(Comparator.comparing(RecordingInfo::getLastModified).reversed());
+        return list;
+    }
+
+    // plain file name of an existing recording, nothing outside auditLogDir
+    private boolean isRecording(String name) {
+        try {
+            return StringUtils.isNotEmpty(name)
+                    && name.endsWith(SessionRecording.EXTENSION)
+                    && name.equals(Paths.get(name).getFileName().toString())
+                    && !name.startsWith(".")
+                    && Files.isRegularFile(Paths.get(auditLogDir, name));
+        } catch (InvalidPathException ex) {
+            return false;
+        }
+    }
+
+    // owner from the recording's header, exactly, never guessed from the name
+    private static boolean isOwnRecording(Path path, String webUserName) {
+        try {
+            return webUserName != null
+                    && webUserName.equals(SessionRecording.readHeader(path).get("user"));
+        } catch (IOException ex) {
+            logger.debug("recording header of {}: {}", path.getFileName(), ex.getMessage());
+            return false;
+        }
+    }
+
+    private TokenResponse signedToken(TokenRequest treq) {
+        // defaults /session would otherwise fill in, a signed token can't be changed later
+        // (JOIN etc. take the parent's port)
+        if (treq.getSessionType().equalsIgnoreCase(NEW) && treq.getPort() == null) {
+            treq.setPort(treq.getConnectionType().equalsIgnoreCase(SSH_LC) ? 22 : 23);
+        }
+        if (treq.getFontSize() == null) {
+            treq.setFontSize(FONTSIZE);
+        }
+
+        try {
+            String token = tokenCodec.encode(treq, System.currentTimeMillis() + tokenTTL * 1000L);
+            logger.debug("signed TOKEN: {} returned for {}", token, treq.toString());
+
+            return new TokenResponse("success", token);
+        } catch (GeneralSecurityException | JsonProcessingException ex) {
+            logger.error("token signing exception: {}", ex.toString());
+
+            return new TokenResponse("failure", "Token Signing Failed");
+        }
+    }
+
+    private boolean okToIssueToken(TokenRequest treq) {
+        boolean verified = false;
+
+        if (treq != null) {
+            // ACL:
+            // treq.getWebUserRole() "ROLE_ADMIN"
+            // parentConnection getWebUserName() same as treq.getWebUserName()
+            //   or parentConnection isVisibleToAll
+            if ("ROLE_ADMIN".equals(treq.getWebUserRole())) {
+                verified = true;
+            } else {
+                if (REPLAY.equalsIgnoreCase(treq.getSessionType())) {
+                    verified = isRecording(treq.getRecording())
+                            && isOwnRecording(Paths.get(auditLogDir, treq.getRecording()), treq.getWebUserName());
+                } else if (treq.getParentToken() != null) {
+                    TerminalSessionInfo parentInfo = rootSessionInfo(treq.getParentToken());
+                    if (parentInfo != null
+                            && (parentInfo.getWebUserName().equals(treq.getWebUserName())
+                            || parentInfo.isVisibleToAll())) {
+                        verified = true;
+                    }
+                } else {
+                    verified = true;
+                }
+            }
+        }
+
+        return verified;
+    }
+
+    /**
+     *
+     * @param token
+     * @return
+     */
+    public static boolean tokenExists(String token) {
+        return tokenToRequest(token) != null;
+    }
+
+    /**
+     *
+     * @param token
+     * @return
+     */
+    public static TokenRequest tokenToRequest(String token) {
+        if (tokenCodec != null && TokenCodec.isSigned(token)) {
+            TokenCodec.SignedToken signedToken = tokenCodec.decode(token);
+            if (signedToken == null || replayCache.isUsed(signedToken.getId())) {
+                return null;
+            }
+            return signedToken.getRequest();
+        }
+        return tokenStore.get(token);
+    }
+
+    /**
+     * one time use, get and remove
+     *
+     * @param token
+     * @return
+     */
+    public static TokenRequest tokenTake(String token) {
+        if (tokenCodec != null && TokenCodec.isSigned(token)) {
+            TokenCodec.SignedToken signedToken = tokenCodec.decode(token);
+            if (signedToken == null || !replayCache.use(signedToken.getId(), signedToken.getExpiresAt())) {
+                return null;
+            }
+            return signedToken.getRequest();
+        }
+        return tokenStore.take(token);
+    }
+
+    /**
+     *
+     * @param token
+     */
+    public static void tokenRemove(String token) {
+        if (tokenCodec != null && TokenCodec.isSigned(token)) {
+            tokenTake(token);
+            return;
+        }
+        tokenStore.remove(token);
+    }
+}
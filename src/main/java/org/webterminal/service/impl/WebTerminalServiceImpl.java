@@ -19,11 +19,22 @@ package org.webterminal.service.impl;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import org.webterminal.util.AuditLoggingToFile;
+import org.webterminal.util.AuditOverflowPolicy;
+import org.webterminal.util.AuditWriter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.jcraft.jsch.JSchException;
 import org.webterminal.connection.Connection;
+import org.webterminal.connection.PasteWriter;
+import org.webterminal.connection.SessionContext;
+import org.webterminal.connection.SessionRegistry;
+import org.webterminal.connection.SlowConsumerPolicy;
+import org.webterminal.connection.Subscriber;
+import org.webterminal.connection.nio.TelnetEventLoopGroup;
 import org.webterminal.connection.impl.JoinConnection;
+import org.webterminal.connection.impl.NioTelnetConnection;
 import org.webterminal.connection.impl.PtyConnection;
+import org.webterminal.connection.impl.RemoteConnection;
+import org.webterminal.connection.impl.ReplayConnection;
 import org.webterminal.connection.impl.SshConnection;
 import org.webterminal.connection.impl.TelnetConnection;
 import org.webterminal.constant.Constants;
@@ -31,41 +42,71 @@ import static org.webterminal.constant.Constants.CLIENT_CONNECT;
 import static org.webterminal.constant.Constants.CLIENT_SUSPEND;
 import static org.webterminal.constant.Constants.CLIENT_DISCONNECT;
 import static org.webterminal.constant.Constants.CLIENT_DATA;
+import static org.webterminal.constant.Constants.CLIENT_REPLAY;
+import static org.webterminal.constant.Constants.FRAME_IN_DATA;
+import static org.webterminal.constant.Constants.FRAME_IN_DISCONNECT;
+import static org.webterminal.constant.Constants.FRAME_IN_RESIZE;
+import static org.webterminal.constant.Constants.FRAME_IN_SUSPEND;
 import static org.webterminal.constant.Constants.NEW;
+import static org.webterminal.constant.Constants.PROTOCOL_BINARY;
+import static org.webterminal.constant.Constants.PROTOCOL_JSON;
+import static org.webterminal.constant.Constants.REPLAY;
+import static org.webterminal.constant.Constants.SESSION_CONTEXT;
+import static org.webterminal.constant.Constants.SESSION_PROTOCOL;
+import static org.webterminal.constant.Constants.SESSION_SEND_LOCK;
 import static org.webterminal.constant.Constants.SESSION_UUID;
 import static org.webterminal.constant.Constants.SSH_LC;
 import static org.webterminal.constant.Constants.TELNET_LC;
 import static org.webterminal.constant.Constants.TN3270_LC;
-import org.webterminal.controller.WebTerminalController;
+import org.webterminal.pojo.OutboundQueueInfo;
+import org.webterminal.pojo.ReplayControl;
 import org.webterminal.pojo.RowsCols;
+import org.webterminal.pojo.SessionThreadInfo;
 import org.webterminal.pojo.TokenRequest;
 import org.webterminal.pojo.TerminalSessionInfo;
 import org.webterminal.pojo.TwoWayMessage;
+import org.webterminal.screen.ScreenModel;
 import org.webterminal.pojo.TokenRowsCols;
+import org.webterminal.util.InboundFrames;
+import org.webterminal.util.OutputCoalescer;
+import org.webterminal.util.SessionThreads;
+import org.webterminal.util.TimingWheel;
+import org.webterminal.util.TokenCodec;
+import org.webterminal.cluster.ClusterRegistry;
+import org.webterminal.cluster.ClusterSession;
+import org.webterminal.cluster.LocalClusterRegistry;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketMessage;
 import org.springframework.web.socket.WebSocketSession;
 
 import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.webterminal.service.WebTerminalService;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.socket.BinaryMessage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import static org.webterminal.constant.Constants.CLIENT_RESIZE;
 //import com.fasterxml.uuid.EthernetAddress;
 //import com.fasterxml.uuid.Generators;
@@ -73,9 +114,11 @@ import static org.webterminal.constant.Constants.CLIENT_RESIZE;
 @Service
 public class WebTerminalServiceImpl implements WebTerminalService {
 
-    private static final Map<String, Connection> SessionMAP = new ConcurrentHashMap<>();
+    private static final SessionRegistry sessionRegistry = new SessionRegistry();
+    // idle timeouts, token TTLs, keepalives; 1s ticks, 512 of them per round
+    private static final TimingWheel timingWheel = new TimingWheel("session-timer", 1000, 512);
+    private static volatile ClusterRegistry clusterRegistry;
     private static final Logger logger = LoggerFactory.getLogger(WebTerminalServiceImpl.class);
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
 
     // thread safe
     private static final ObjectMapper objectMapper = new ObjectMapper();
@@ -83,6 +126,131 @@ public class WebTerminalServiceImpl implements WebTerminalService {
     @Value("${webterminal.auditLogDir}")
     private String auditLogDir;
 
+    // output coalescing per connection type
+    @Value("${webterminal.coalesce.ssh.maxBytes:16384}")
+    private int sshMaxBytes;
+    @Value("${webterminal.coalesce.ssh.lingerMillis:3}")
+    private int sshLingerMillis;
+    @Value("${webterminal.coalesce.ssh.echoBytes:16}")
+    private int sshEchoBytes;
+
+    @Value("${webterminal.coalesce.telnet.maxBytes:16384}")
+    private int telnetMaxBytes;
+    @Value("${webterminal.coalesce.telnet.lingerMillis:3}")
+    private int telnetLingerMillis;
+    @Value("${webterminal.coalesce.telnet.echoBytes:16}")
+    private int telnetEchoBytes;
+
+    @Value("${webterminal.coalesce.pty.maxBytes:16384}")
+    private int ptyMaxBytes;
+    @Value("${webterminal.coalesce.pty.lingerMillis:3}")
+    private int ptyLingerMillis;
+    @Value("${webterminal.coalesce.pty.echoBytes:16}")
+    private int ptyEchoBytes;
+
+    // outbound queue per webSocketSession
+    @Value("${webterminal.outbound.queueSize:256}")
+    private int outboundQueueSize;
+    @Value("${webterminal.outbound.ownerPolicy:BLOCK}")
+    private SlowConsumerPolicy outboundOwnerPolicy;
+    @Value("${webterminal.outbound.watcherPolicy:RESYNC}")
+    private SlowConsumerPolicy outboundWatcherPolicy;
+
+    // telnet engine: blocking (thread per session) or nio (shared event loops)
+    @Value("${webterminal.telnetEngine:blocking}")
+    private String telnetEngine;
+    @Value("${webterminal.telnetEventLoops:2}")
+    private int telnetEventLoops;
+
+    private TelnetEventLoopGroup telnetEventLoopGroup;
+
+    // server side screen model for JOIN/WATCH/TAKE snapshots
+    @Value("${webterminal.screen.enabled:true}")
+    private boolean screenEnabled;
+    @Value("${webterminal.screen.scrollback:200}")
+    private int screenScrollback;
+    @Value("${webterminal.screen.deltaFps:10}")
+    private int screenDeltaFps;
+    @Value("${webterminal.paste.chunkSize:1024}")
+    private int pasteChunkSize;
+    @Value("${webterminal.paste.pacingMillis:20}")
+    private int pastePacingMillis;
+    @Value("${webterminal.paste.echoTimeoutMillis:0}")
+    private int pasteEchoTimeoutMillis;
+
+    // audit log files written by background writers, see AuditWriter
+    @Value("${webterminal.audit.queueSize:4096}")
+    private int auditQueueSize;
+    @Value("${webterminal.audit.writers:1}")
+    private int auditWriters;
+    @Value("${webterminal.audit.flushMillis:200}")
+    private int auditFlushMillis;
+    @Value("${webterminal.audit.overflow:DROP}")
+    private AuditOverflowPolicy auditOverflowPolicy;
+    @Value("${webterminal.audit.recording:true}")
+    private boolean auditRecording;
+    @Value("${webterminal.audit.recordInput:false}")
+    private boolean auditRecordInput;
+
+    // platform or virtual, for connect/read loops, prompt matching and writers
+    @Value("${webterminal.threads:platform}")
+    private String threadModel;
+
+    // websocket ping interval, keeps proxies from dropping quiet sessions, 0 off
+    @Value("${webterminal.keepaliveSeconds:30}")
+    private int keepaliveSeconds;
+
+    // a ClusterRegistry bean shares the session directory across nodes
+    @Autowired(required = false)
+    private ClusterRegistry sharedClusterRegistry;
+
+    // this node in the cluster, defaults to host name
+    @Value("${webterminal.cluster.nodeId:}")
+    private String clusterNodeId;
+
+    // how other nodes reach this one, e.g. ws://node1:8080/webterminal
+    @Value("${webterminal.cluster.nodeUrl:}")
+    private String clusterNodeUrl;
+
+    /**
+     *
+     * @throws IOException
+     */
+    @PostConstruct
+    public void init() throws IOException {
+        Subscriber.configure(outboundQueueSize, outboundOwnerPolicy, outboundWatcherPolicy);
+        SessionThreads.configure(threadModel);
+        PasteWriter.configure(pasteChunkSize, pastePacingMillis, pasteEchoTimeoutMillis);
+        AuditWriter.configure(auditQueueSize, auditWriters, auditFlushMillis, auditOverflowPolicy);
+        AuditLoggingToFile.configureRecording(auditRecording, auditRecordInput);
+
+        if (sharedClusterRegistry != null) {
+            clusterRegistry = sharedClusterRegistry;
+        } else {
+            String nodeId = StringUtils.isNotEmpty(clusterNodeId) ? clusterNodeId : InetAddress.getLocalHost().getHostName();
+            clusterRegistry = new LocalClusterRegistry(nodeId, clusterNodeUrl);
+        }
+        sessionRegistry.setClusterRegistry(clusterRegistry);
+        logger.info("cluster node {} with {}", clusterRegistry.getNodeId(), clusterRegistry.getClass().getSimpleName());
+
+        if ("nio".equalsIgnoreCase(telnetEngine)) {
+            telnetEventLoopGroup = new TelnetEventLoopGroup(telnetEventLoops, telnetMaxBytes);
+            logger.info("nio telnet engine with {} event loops", telnetEventLoops);
+        }
+    }
+
+    /**
+     *
+     */
+    @PreDestroy
+    public void destroy() {
+        if (telnetEventLoopGroup != null) {
+            telnetEventLoopGroup.shutdown();
+        }
+        timingWheel.shutdown();
+        AuditWriter.shutdown();
+    }
+
     /**
      *
      * @param session
@@ -92,7 +260,11 @@ public class WebTerminalServiceImpl implements WebTerminalService {
         String sessionId = UUID.randomUUID().toString().replace("-", "");
         //String sessionId = Generators.timeBasedGenerator( EthernetAddress.fromInterface() ).generate().toString().replace("-", "");
         session.getAttributes().put(SESSION_UUID, sessionId);
+        session.getAttributes().put(SESSION_CONTEXT, new SessionContext(sessionId));
+        session.getAttributes().put(SESSION_SEND_LOCK, new ReentrantLock());
         logger.debug("initSession attributes: {}", session.getAttributes().toString());
+
+        scheduleKeepalive(session);
     }
 
     /**
@@ -102,6 +274,19 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      */
     @Override
     public void textMessageHandler(String buffer, WebSocketSession webSocketSession) {
+        RemoteConnection remoteConnection = remoteConnectionOf(webSocketSession);
+        if (remoteConnection != null) {
+            relay(remoteConnection, new TextMessage(buffer));
+            return;
+        }
+
+        // keystrokes, most frequent and latency sensitive, skip Jackson
+        byte[] data = InboundFrames.parseData(buffer);
+        if (data != null) {
+            dataHandler(data, webSocketSession);
+            return;
+        }
+
         TwoWayMessage clientMessage;
         try {
             clientMessage = objectMapper.readValue(buffer, TwoWayMessage.class);
@@ -130,7 +315,8 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                 return;
             }
 
-            TokenRequest req = WebTerminalController.tokenToRequest(tokenRowsCols.getToken());
+            // taken, so token is for one time use only
+            TokenRequest req = SessionControlServiceImpl.tokenTake(tokenRowsCols.getToken());
             if (req != null) {
                 TerminalSessionInfo terminalSessionInfo = new TerminalSessionInfo();
 
@@ -141,12 +327,33 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                 terminalSessionInfo.setRows(tokenRowsCols.getRows());
                 terminalSessionInfo.setCols(tokenRowsCols.getCols());
 
-                // remove so token is for one time use only
-                WebTerminalController.tokenRemove(tokenRowsCols.getToken());
+                // parent on another node: relay there, it negotiates protocol with the client
+                ClusterSession owner = remoteOwner(terminalSessionInfo);
+
+                // framing protocol is per webSocketSession, old clients don't ask for any
+                if (owner == null) {
+                    int protocol = Math.max(PROTOCOL_JSON, Math.min(tokenRowsCols.getProto(), PROTOCOL_BINARY));
+                    webSocketSession.getAttributes().put(SESSION_PROTOCOL, protocol);
+                    if (protocol > PROTOCOL_JSON) {
+                        sendProtocolMessage(webSocketSession, protocol);
+                    }
+                }
 
                 final Connection connection;
 
-                if (!terminalSessionInfo.getSessionType().equals(NEW)) {
+                if (owner != null) {
+                    TerminalSessionInfo ownerInfo = owner.getTerminalSessionInfo();
+                    terminalSessionInfo.setHost(ownerInfo.getHost());
+                    terminalSessionInfo.setPort(ownerInfo.getPort());
+                    terminalSessionInfo.setConnectionType(ownerInfo.getConnectionType());
+
+                    connection = new RemoteConnection(webSocketSession, terminalSessionInfo,
+                            new AuditLoggingToFile(auditLogDir), clusterRegistry.getNodeUrl(owner.getNodeId()), buffer);
+                } else if (terminalSessionInfo.getSessionType().equals(REPLAY)) {
+                    connection = new ReplayConnection(webSocketSession, terminalSessionInfo,
+                            new AuditLoggingToFile(auditLogDir), Paths.get(auditLogDir, terminalSessionInfo.getRecording()),
+                            screenScrollback);
+                } else if (!terminalSessionInfo.getSessionType().equals(NEW)) {
                     connection = new JoinConnection(webSocketSession, terminalSessionInfo,
                             new AuditLoggingToFile(auditLogDir));
                 } else if (terminalSessionInfo.isUsePty()) {
@@ -160,8 +367,11 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                     connection = new SshConnection(webSocketSession, terminalSessionInfo,
                             new AuditLoggingToFile(auditLogDir));
                 } else if (terminalSessionInfo.getConnectionType().equalsIgnoreCase(TELNET_LC)) {
-                    connection = new TelnetConnection(webSocketSession, terminalSessionInfo,
-                            new AuditLoggingToFile(auditLogDir));
+                    connection = telnetEventLoopGroup != null
+                            ? new NioTelnetConnection(webSocketSession, terminalSessionInfo,
+                                    new AuditLoggingToFile(auditLogDir), telnetEventLoopGroup)
+                            : new TelnetConnection(webSocketSession, terminalSessionInfo,
+                                    new AuditLoggingToFile(auditLogDir));
                 } else {
                     logger.error("unknown connectionType: {}", terminalSessionInfo.getConnectionType());
 
@@ -171,11 +381,25 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                     return;
                 }
 
-                SessionMAP.put(sessionId, connection);
+                connection.setOutputCoalescer(outputCoalescerFor(terminalSessionInfo));
+                if (terminalSessionInfo.getSessionType().equals(NEW)) {
+                    connection.setPasteWriter(new PasteWriter(connection));
+                }
+                if (screenEnabled && terminalSessionInfo.getSessionType().equals(NEW)) {
+                    connection.setScreenModel(new ScreenModel(terminalSessionInfo.getRows(),
+                            terminalSessionInfo.getCols(), screenScrollback));
+                    connection.setDeltaFps(screenDeltaFps);
+                }
+
+                sessionRegistry.add(sessionId, connection);
+                SessionContext.of(webSocketSession).setConnection(connection);
                 terminalSessionInfo.setSessionId(sessionId);
+                if (terminalSessionInfo.getSessionType().equals(NEW) && terminalSessionInfo.getMaxIdleTime() > 0) {
+                    scheduleIdleCheck(connection, 60_000L * terminalSessionInfo.getMaxIdleTime());
+                }
                 logger.debug("session setup: {}", terminalSessionInfo);
 
-                executorService.execute(new Runnable() {
+                SessionThreads.execute(sessionId, SessionThreads.CONNECT, new Runnable() {
                     @Override
                     public void run() {
                         try {
@@ -197,74 +421,41 @@ public class WebTerminalServiceImpl implements WebTerminalService {
             }
 
         } else if (CLIENT_DATA.equals(clientMessage.getT())) {
-            String payload = clientMessage.getP();
-            Connection connection = SessionMAP.get(sessionId);
-
-            if (connection != null) {
-                try {
-                    if (connection.getTerminalSessionInfo().isReady()) {
-                        connection.send(payload);
-                    } else {
-                        logger.info("user input ignored while session not ready");
-                    }
-                } catch (IOException ex) {
-                    logger.warn("send into destination exception: {}", ex.getMessage());
-
-                    sendRootCauseMessage(connection, ex);
-                    sessionClose(webSocketSession);
-                }
-            } else {
-                sendOOBMessage(webSocketSession, "Unknown Session for Data");
-                sessionClose(webSocketSession);
-            }
+            dataHandler(clientMessage.getP().getBytes(StandardCharsets.UTF_8), webSocketSession);
         } else if (CLIENT_SUSPEND.equals(clientMessage.getT())) {
             logger.debug("suspend received: {}", clientMessage);
-            Connection connection = tokenToRootConnection(clientMessage.getP());
-
-            // match toplevel session, can only suspend own session, session is NEW type
-            if (connection != null
-                    && connection.getTerminalSessionInfo().getSessionId().equals(sessionId)
-                    && connection.getTerminalSessionInfo().getSessionType().equalsIgnoreCase("NEW")) {
-                logger.debug("ok to suspend {}", clientMessage);
-
-                connection.suspend();
-                // no idle timeout, otherwise defeats purpose of suspend as connection will be reaped
-                connection.getTerminalSessionInfo().setMaxIdleTime(0);
-            }
+            suspendHandler(clientMessage.getP(), webSocketSession);
         } else if (CLIENT_DISCONNECT.equals(clientMessage.getT())) {
             logger.debug("disconnect received: {}", clientMessage);
-            Connection connection = tokenToConnection(clientMessage.getP());
-
-            // disconnect own session
-            if (connection != null
-                    && connection.getTerminalSessionInfo().getSessionId().equals(sessionId)) {
-                logger.debug("ok to disconnect {}", clientMessage);
-
-                sendOOBMessage(webSocketSession, "Session Disconnecting");
-                connectionClose(connection);
-            }  else {
-                sendOOBMessage(webSocketSession, "Unknown Session for Disconnect");
-                sessionClose(webSocketSession);
-            }
+            disconnectHandler(clientMessage.getP(), webSocketSession);
         } else if (CLIENT_RESIZE.equals(clientMessage.getT())) {
             logger.debug("resize received {}", clientMessage);
 
-            Connection connection = SessionMAP.get(sessionId);
-            if (connection != null) {
-                RowsCols rowsCols;
-                try {
-                    rowsCols = objectMapper.readValue(clientMessage.getP(), RowsCols.class);
-                    connection.resize(rowsCols);
-                } catch (IOException ex) {
-                    logger.error("resize RowsCols JSON Conversion exception: {}", ex.toString());
+            RowsCols rowsCols;
+            try {
+                rowsCols = objectMapper.readValue(clientMessage.getP(), RowsCols.class);
+            } catch (IOException ex) {
+                logger.error("resize RowsCols JSON Conversion exception: {}", ex.toString());
 
+                Connection connection = connectionOf(webSocketSession);
+                if (connection != null) {
                     sendRootCauseMessage(connection, ex);
-                    sessionClose(webSocketSession);
                 }
-            } else {
-                sendOOBMessage(webSocketSession, "Unknown Session for Resize");
                 sessionClose(webSocketSession);
+                return;
             }
+            resizeHandler(rowsCols, webSocketSession);
+        } else if (CLIENT_REPLAY.equals(clientMessage.getT())) {
+            logger.debug("replay control received {}", clientMessage);
+
+            ReplayControl control;
+            try {
+                control = objectMapper.readValue(clientMessage.getP(), ReplayControl.class);
+            } catch (IOException ex) {
+                logger.error("replay ReplayControl JSON Conversion exception: {}", ex.toString());
+                return;
+            }
+            replayHandler(control, webSocketSession);
         } else {
             logger.error("unsupported client message: {}", clientMessage);
 
@@ -273,6 +464,226 @@ public class WebTerminalServiceImpl implements WebTerminalService {
         }
     }
 
+    /**
+     * user input straight into the backend
+     *
+     * @param data
+     * @param webSocketSession
+     */
+    private void dataHandler(byte[] data, WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+
+        if (connection != null) {
+            try {
+                if (connection.getTerminalSessionInfo().isReady()) {
+                    connection.input(data);
+                } else {
+                    logger.info("user input ignored while session not ready");
+                }
+            } catch (IOException ex) {
+                logger.warn("send into destination exception: {}", ex.getMessage());
+
+                sendRootCauseMessage(connection, ex);
+                sessionClose(webSocketSession);
+            }
+        } else {
+            sendOOBMessage(webSocketSession, "Unknown Session for Data");
+            sessionClose(webSocketSession);
+        }
+    }
+
+    /**
+     * 1 byte type tag, then payload: raw input, resize as 2+2 bytes, or a
+     * token for suspend/disconnect. Input bytes go to the backend as is
+     *
+     * @param buffer
+     * @param webSocketSession
+     */
+    @Override
+    public void binaryMessageHandler(ByteBuffer buffer, WebSocketSession webSocketSession) {
+        RemoteConnection remoteConnection = remoteConnectionOf(webSocketSession);
+        if (remoteConnection != null) {
+            relay(remoteConnection, new BinaryMessage(buffer));
+            return;
+        }
+
+        Object protocol = webSocketSession.getAttributes().get(SESSION_PROTOCOL);
+        if (!(protocol instanceof Integer) || (Integer) protocol < PROTOCOL_BINARY || !buffer.hasRemaining()) {
+            logger.error("unexpected binary message, protocol: {}", protocol);
+
+            sendOOBMessage(webSocketSession, "Unsupported Binary Message");
+            sessionClose(webSocketSession);
+            return;
+        }
+
+        byte type = buffer.get();
+        if (type == FRAME_IN_DATA) {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.get(data);
+            dataHandler(data, webSocketSession);
+        } else if (type == FRAME_IN_RESIZE && buffer.remaining() == 4) {
+            int rows = buffer.getShort() & 0xffff;
+            int cols = buffer.getShort() & 0xffff;
+            logger.debug("resize received {}x{}", rows, cols);
+            resizeHandler(new RowsCols(rows, cols), webSocketSession);
+        } else if (type == FRAME_IN_SUSPEND) {
+            logger.debug("suspend received");
+            suspendHandler(StandardCharsets.UTF_8.decode(buffer).toString(), webSocketSession);
+        } else if (type == FRAME_IN_DISCONNECT) {
+            logger.debug("disconnect received");
+            disconnectHandler(StandardCharsets.UTF_8.decode(buffer).toString(), webSocketSession);
+        } else {
+            logger.error("unsupported binary message type: {}", type);
+
+            sendOOBMessage(webSocketSession, "Unsupported Binary Message Type: " + type);
+            sessionClose(webSocketSession);
+        }
+    }
+
+    /**
+     *
+     * @param token
+     * @param webSocketSession
+     */
+    private void suspendHandler(String token, WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+
+        // can only suspend own session, session is NEW type (so toplevel)
+        if (connection != null
+                && connection.getTerminalSessionInfo().getToken().equals(token)
+                && connection.getTerminalSessionInfo().getSessionType().equalsIgnoreCase("NEW")) {
+            logger.debug("ok to suspend {}", token);
+
+            connection.suspend();
+            // no idle timeout, otherwise defeats purpose of suspend as connection will be reaped
+            connection.getTerminalSessionInfo().setMaxIdleTime(0);
+        }
+    }
+
+    /**
+     *
+     * @param token
+     * @param webSocketSession
+     */
+    private void disconnectHandler(String token, WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+
+        // disconnect own session
+        if (connection != null
+                && connection.getTerminalSessionInfo().getToken().equals(token)) {
+            logger.debug("ok to disconnect {}", token);
+
+            sendOOBMessage(webSocketSession, "Session Disconnecting");
+            connectionClose(connection);
+        }  else {
+            sendOOBMessage(webSocketSession, "Unknown Session for Disconnect");
+            sessionClose(webSocketSession);
+        }
+    }
+
+    /**
+     *
+     * @param rowsCols
+     * @param webSocketSession
+     */
+    private void resizeHandler(RowsCols rowsCols, WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+
+        if (connection != null) {
+            connection.resize(rowsCols);
+        } else {
+            sendOOBMessage(webSocketSession, "Unknown Session for Resize");
+            sessionClose(webSocketSession);
+        }
+    }
+
+    /**
+     *
+     * @param control
+     * @param webSocketSession
+     */
+    private void replayHandler(ReplayControl control, WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+
+        if (connection instanceof ReplayConnection) {
+            ((ReplayConnection) connection).control(control);
+        } else {
+            sendOOBMessage(webSocketSession, "Unknown Session for Replay");
+            sessionClose(webSocketSession);
+        }
+    }
+
+    /**
+     *
+     * @param webSocketSession
+     * @return null unless the session is relayed to another node
+     */
+    private static RemoteConnection remoteConnectionOf(WebSocketSession webSocketSession) {
+        Connection connection = connectionOf(webSocketSession);
+        return connection instanceof RemoteConnection ? (RemoteConnection) connection : null;
+    }
+
+    /**
+     * frames of a relayed session go to the owner node untouched
+     *
+     * @param remoteConnection
+     * @param message
+     */
+    private void relay(RemoteConnection remoteConnection, WebSocketMessage<?> message) {
+        try {
+            remoteConnection.relay(message);
+        } catch (IOException ex) {
+            logger.debug("relay exception: {}", ex.getMessage());
+
+            sendRootCauseMessage(remoteConnection, ex);
+            connectionClose(remoteConnection);
+        }
+    }
+
+    /**
+     * another node owns the parent of a JOIN/WATCH/TAKE, reachable, and will
+     * accept the same token (only a signed one can be checked there)
+     *
+     * @param terminalSessionInfo
+     * @return null if local or nowhere
+     */
+    private static ClusterSession remoteOwner(TerminalSessionInfo terminalSessionInfo) {
+        if (terminalSessionInfo.getSessionType().equals(NEW)
+                || terminalSessionInfo.getSessionType().equals(REPLAY)
+                || tokenToRootConnection(terminalSessionInfo.getParentToken()) != null) {
+            return null;
+        }
+
+        ClusterSession owner = clusterRegistry.lookup(terminalSessionInfo.getParentToken());
+        if (owner == null || owner.getNodeId().equals(clusterRegistry.getNodeId())) {
+            return null;
+        }
+        if (clusterRegistry.getNodeUrl(owner.getNodeId()) == null
+                || !TokenCodec.isSigned(terminalSessionInfo.getToken())) {
+            logger.warn("parent on node {} but can't relay there (nodeUrl, tokenSecret?)", owner.getNodeId());
+            return null;
+        }
+        return owner;
+    }
+
+    /**
+     * JOIN/WATCH/TAKE don't read a backend, nothing to coalesce
+     *
+     * @param terminalSessionInfo
+     * @return
+     */
+    private OutputCoalescer outputCoalescerFor(TerminalSessionInfo terminalSessionInfo) {
+        if (!terminalSessionInfo.getSessionType().equals(NEW)) {
+            return OutputCoalescer.passThrough();
+        } else if (terminalSessionInfo.isUsePty()) {
+            return new OutputCoalescer(ptyMaxBytes, ptyLingerMillis, ptyEchoBytes);
+        } else if (terminalSessionInfo.getConnectionType().equalsIgnoreCase(SSH_LC)) {
+            return new OutputCoalescer(sshMaxBytes, sshLingerMillis, sshEchoBytes);
+        } else {
+            return new OutputCoalescer(telnetMaxBytes, telnetLingerMillis, telnetEchoBytes);
+        }
+    }
+
     //
     // utilities from this point on, should put in a separate class?
     //
@@ -281,8 +692,9 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      * @param session
      */
     public static void sessionClose(WebSocketSession session) {
-        String sessionId = String.valueOf(session.getAttributes().get(SESSION_UUID));
-        Connection connection = SessionMAP.get(sessionId);
+        SessionContext sessionContext = SessionContext.of(session);
+        String sessionId = sessionContext != null ? sessionContext.getSessionId() : null;
+        Connection connection = sessionContext != null ? sessionContext.getConnection() : null;
         // webSocketHandler calls when connection suspends, so leave it alone if suspended
         if (connection != null && !connection.isSuspended()) {
             try {
@@ -291,9 +703,10 @@ public class WebTerminalServiceImpl implements WebTerminalService {
 
                 if (children != null) {
                     connection.getTerminalSessionInfo().setChildren(null);
+                    connection.getOutputBroadcast().unsubscribeAll();
 
                     for (String child : children) {
-                        Connection childconn = SessionMAP.get(child);
+                        Connection childconn = sessionRegistry.get(child);
                         if (childconn != null) {
                             logger.debug("ALSO close child: {}", child);
 
@@ -301,7 +714,8 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                             childconn.close();
                             childconn.webSocketSessionClose();
 
-                            SessionMAP.remove(child);
+                            sessionRegistry.remove(child);
+                            unbind(childconn);
                         }
                     }
 
@@ -312,7 +726,8 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                 logger.error("session close exception: {}", e.getMessage());
             }
 
-            SessionMAP.remove(sessionId);
+            sessionRegistry.remove(sessionId);
+            sessionContext.swap(connection, null);
         } else if (connection == null) {
             try {
                 session.close();
@@ -337,7 +752,7 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                 connection.getTerminalSessionInfo().setChildren(null);
 
                 for (String child : children) {
-                    Connection childconn = SessionMAP.get(child);
+                    Connection childconn = sessionRegistry.get(child);
                     if (childconn != null) {
                         logger.debug("ALSO close child conn: {}", child);
 
@@ -345,7 +760,8 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                         childconn.close();
                         childconn.webSocketSessionClose();
 
-                        SessionMAP.remove(child);
+                        sessionRegistry.remove(child);
+                        unbind(childconn);
                     }
                 }
 
@@ -357,28 +773,31 @@ public class WebTerminalServiceImpl implements WebTerminalService {
             logger.error("connection close exception: {}", e.getMessage());
         }
 
-        SessionMAP.remove(sessionId);
+        sessionRegistry.remove(sessionId);
+        unbind(connection);
     }
 
     /**
      * used for suspend
      *
-     * @param terminalSessionInfo
+     * @param connection
      */
-    public static void disconnectChildren(TerminalSessionInfo terminalSessionInfo) {
-        ArrayList<String> children = terminalSessionInfo.getChildren();
+    public static void disconnectChildren(Connection connection) {
+        ArrayList<String> children = connection.getTerminalSessionInfo().getChildren();
         if (children != null) {
-            terminalSessionInfo.setChildren(null);
+            connection.getTerminalSessionInfo().setChildren(null);
+            connection.getOutputBroadcast().unsubscribeAll();
             try {
                 for (String child : children) {
-                    Connection childconn = SessionMAP.get(child);
+                    Connection childconn = sessionRegistry.get(child);
                     if (childconn != null) {
                         logger.debug("disconnect child: {}", child);
 
                         childconn.sendToUser("\r\nDisconnecting(Parent Session Suspended)\r\n");
                         childconn.webSocketSessionClose();
 
-                        SessionMAP.remove(child);
+                        sessionRegistry.remove(child);
+                        unbind(childconn);
                     }
                 }
             } catch (IOException ex) {
@@ -406,7 +825,7 @@ public class WebTerminalServiceImpl implements WebTerminalService {
     private static void sendOOBMessage(WebSocketSession session, Throwable throwable) {
         if (session != null && session.isOpen()) {
             try {
-                session.sendMessage(toClientString(Constants.CR_LF + getRootCause(throwable).getMessage() + Constants.CR_LF));
+                sendLocked(session, toClientString(Constants.CR_LF + getRootCause(throwable).getMessage() + Constants.CR_LF));
             } catch (IOException ex) {
             }
         }
@@ -420,13 +839,33 @@ public class WebTerminalServiceImpl implements WebTerminalService {
     private static void sendOOBMessage(WebSocketSession session, String message) {
         if (session != null && session.isOpen()) {
             try {
-                session.sendMessage(toClientString(Constants.CR_LF + message + Constants.CR_LF));
+                sendLocked(session, toClientString(Constants.CR_LF + message + Constants.CR_LF));
+            } catch (IOException ex) {
+            }
+        }
+    }
+
+    /**
+     * acknowledge negotiated protocol version, before any output goes out
+     *
+     * @param session
+     * @param protocol
+     */
+    private static void sendProtocolMessage(WebSocketSession session, int protocol) {
+        if (session != null && session.isOpen()) {
+            try {
+                sendLocked(session, toClient(String.valueOf(protocol), "v"));
             } catch (IOException ex) {
             }
         }
     }
 
-    private static void sendRootCauseMessage(Connection connection, Throwable throwable) {
+    /**
+     *
+     * @param connection
+     * @param throwable
+     */
+    public static void sendRootCauseMessage(Connection connection, Throwable throwable) {
         if (connection != null) {
             try {
                 connection.sendToUser(Constants.CR_LF + getRootCause(throwable).getMessage() + Constants.CR_LF);
@@ -442,25 +881,116 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      */
     @Override
     public List<TerminalSessionInfo> getTerminalSessionInfoList(String webUserName) {
+        // webUserName null means get all
+        if (StringUtils.isEmpty(webUserName)) {
+            List<TerminalSessionInfo> list = toConnectedInfoList(sessionRegistry.all());
+            list.addAll(remoteInfoList(null));
+            return list;
+        }
+
+        Set<Connection> connections = new LinkedHashSet<>(sessionRegistry.byUser(webUserName));
+        connections.addAll(sessionRegistry.visibleToAll());
+        List<TerminalSessionInfo> list = toConnectedInfoList(connections);
+        list.addAll(remoteInfoList(webUserName));
+        return list;
+    }
+
+    // root sessions on other nodes, webUserName's and visibleToAll ones, or all if null
+    private static List<TerminalSessionInfo> remoteInfoList(String webUserName) {
         List<TerminalSessionInfo> list = new ArrayList<>();
+        for (ClusterSession clusterSession : clusterRegistry.sessions()) {
+            TerminalSessionInfo info = clusterSession.getTerminalSessionInfo();
+            if (!clusterSession.getNodeId().equals(clusterRegistry.getNodeId())
+                    && (webUserName == null || webUserName.equals(info.getWebUserName()) || info.isVisibleToAll())
+                    && (info.getPassword() == null || info.getPassword().equals("*"))) {
+                list.add(info);
+            }
+        }
+        return list;
+    }
+
+    /**
+     *
+     * @param host
+     * @param port null for any port
+     * @return
+     */
+    @Override
+    public List<TerminalSessionInfo> getTerminalSessionInfoListByHost(String host, Integer port) {
+        List<Connection> connections = new ArrayList<>();
+        for (Connection connection : sessionRegistry.byHost(host)) {
+            if (port == null || port.equals(connection.getTerminalSessionInfo().getPort())) {
+                connections.add(connection);
+            }
+        }
+        return toConnectedInfoList(connections);
+    }
+
+    /**
+     *
+     * @param webUserName
+     * @return
+     */
+    @Override
+    public List<TerminalSessionInfo> getTerminalSessionInfoListByUser(String webUserName) {
+        return toConnectedInfoList(sessionRegistry.byUser(webUserName));
+    }
 
-        SessionMAP.entrySet().forEach((Map.Entry<String, Connection> entry) -> {
-            Connection connection = entry.getValue();
-            // skip connections not connected yet, avoid exposing password
+    private static List<TerminalSessionInfo> toConnectedInfoList(Collection<Connection> connections) {
+        List<TerminalSessionInfo> list = new ArrayList<>(connections.size());
+        for (Connection connection : connections) {
+            // skip connections not connected yet, avoid exposing password; replays aren't sessions
+            if (connection.getTerminalSessionInfo().getSessionType().equals(REPLAY)) {
+                continue;
+            }
             if (connection.getTerminalSessionInfo().getPassword() == null
                     || connection.getTerminalSessionInfo().getPassword().equals("*")) {
-                // webUserName null means get all
-                if (StringUtils.isEmpty(webUserName)
-                        || connection.getTerminalSessionInfo().isVisibleToAll()
-                        || webUserName.equals(connection.getTerminalSessionInfo().getWebUserName())) {
-                    list.add(connection.getTerminalSessionInfo());
-                }
+                list.add(connection.getTerminalSessionInfo());
+            }
+        }
+        return list;
+    }
+
+    /**
+     *
+     * @return
+     */
+    @Override
+    public List<OutboundQueueInfo> getOutboundQueueInfoList() {
+        List<OutboundQueueInfo> list = new ArrayList<>();
+
+        sessionRegistry.all().forEach((Connection connection) -> {
+            Subscriber subscriber = connection.getOutputBroadcast().getOwner();
+            // suspended sessions have nothing to report
+            if (subscriber != null) {
+                TerminalSessionInfo terminalSessionInfo = connection.getTerminalSessionInfo();
+                OutboundQueueInfo info = new OutboundQueueInfo();
+                info.setSessionId(terminalSessionInfo.getSessionId());
+                info.setSessionType(terminalSessionInfo.getSessionType());
+                info.setWebUserName(terminalSessionInfo.getWebUserName());
+                info.setPolicy(subscriber.getPolicy().name());
+                info.setDepth(subscriber.getQueueDepth());
+                info.setMaxDepth(subscriber.getMaxQueueDepth());
+                info.setCapacity(subscriber.getQueueCapacity());
+                info.setSent(subscriber.getSent());
+                info.setDropped(subscriber.getDropped());
+                info.setResyncs(subscriber.getResyncs());
+                list.add(info);
             }
         });
 
         return list;
     }
 
+    /**
+     *
+     * @return
+     */
+    @Override
+    public Map<String, List<SessionThreadInfo>> getSessionThreadInfoMap() {
+        return SessionThreads.snapshot();
+    }
+
     /**
      *
      * @param token
@@ -470,18 +1000,7 @@ public class WebTerminalServiceImpl implements WebTerminalService {
     public Map dropSession(String token) {
         logger.debug("REQ to dropSession with TOKEN: {}", token);
 
-        Connection connection = null;
-        Iterator<Map.Entry<String, Connection>> iterator = SessionMAP.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Connection> entry = iterator.next();
-
-            connection = entry.getValue();
-            if (token.equals(connection.getTerminalSessionInfo().getToken())) {
-                break;
-            } else {
-                connection = null;
-            }
-        }
+        Connection connection = sessionRegistry.byToken(token);
 
         if (connection != null) {
             try {
@@ -498,82 +1017,80 @@ public class WebTerminalServiceImpl implements WebTerminalService {
     }
 
     /**
-     * cronjob to kick out idle (if set) sessions
+     * idle check for a NEW session, re-arms itself at the session's current
+     * deadline; traffic only updates lastTrafficTime, never the wheel
+     *
+     * @param connection
+     * @param delayMillis
      */
-    @Scheduled(cron = "${webterminal.cronSessions}")
-    public void sessionIdleHouseKeeping() {
-        logger.trace("sessionIdleHouseKeeping run");
+    private static void scheduleIdleCheck(Connection connection, long delayMillis) {
+        timingWheel.schedule(() -> idleCheck(connection), delayMillis);
+    }
 
-        long now = System.currentTimeMillis() / 1000l;
+    private static void idleCheck(Connection connection) {
+        TerminalSessionInfo terminalSessionInfo = connection.getTerminalSessionInfo();
+        Integer maxIdleTime = terminalSessionInfo.getMaxIdleTime();
 
-        /*
-        SessionMAP.entrySet().forEach((Map.Entry<String, Connection> entry) -> {
-            Connection connection = entry.getValue();
-
-            // only NEW sessions are involved here
-            if (connection.getTerminalSessionInfo().getParent() == null) {
-                int max = connection.getTerminalSessionInfo().getMaxIdleTime();
-                if (max > 0 && connection.getTerminalSessionInfo().getLastTrafficTime() != 0) {
-                    // in seconds
-                    max = 60 * max;
-                    if ((now - connection.getTerminalSessionInfo().getLastTrafficTime()) >= max) {
-                        logger.debug("TIMING out: {}", connection.getTerminalSessionInfo());
-                        try {
-                            connection.sendToUser("\r\nSession Timed Out Administratively");
-                        } catch (IOException ex) {
-                        }
-                        connectionClose(connection);
-                    }
-                }
-            }
+        // closed, or suspended (no idle timeout then)
+        if (sessionRegistry.get(terminalSessionInfo.getSessionId()) != connection
+                || maxIdleTime == null || maxIdleTime <= 0) {
+            return;
+        }
 
-        });
-         */
-        ArrayList<Connection> candidates = new ArrayList<>();
-
-        Iterator<Map.Entry<String, Connection>> iterator = SessionMAP.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<String, Connection> entry = iterator.next();
-            Connection connection = entry.getValue();
-
-            // only NEW sessions are involved here
-            if (connection.getTerminalSessionInfo().getParent() == null) {
-                int max = connection.getTerminalSessionInfo().getMaxIdleTime();
-                if (max > 0 && connection.getTerminalSessionInfo().getLastTrafficTime() != 0) {
-                    // in seconds
-                    max = 60 * max;
-                    if ((now - connection.getTerminalSessionInfo().getLastTrafficTime()) >= max) {
-                        logger.debug("TIMING out: {}", connection.getTerminalSessionInfo());
-                        candidates.add(connection);
-                    }
+        // in seconds
+        long max = 60L * maxIdleTime;
+        long last = terminalSessionInfo.getLastTrafficTime();
+        long now = System.currentTimeMillis() / 1000l;
+        if (last == 0) {
+            // not ready yet
+            scheduleIdleCheck(connection, 1000L * max);
+        } else if (now - last < max) {
+            scheduleIdleCheck(connection, 1000L * (last + max - now));
+        } else {
+            logger.debug("TIMING out: {}", terminalSessionInfo);
+
+            // close may block, not on the timer thread
+            SessionThreads.execute(terminalSessionInfo.getSessionId(), SessionThreads.TIMEOUT, () -> {
+                try {
+                    connection.sendToUser("\r\nSession Timed Out Administratively");
+                } catch (IOException ex) {
                 }
-            }
+                connectionClose(connection);
+            });
         }
-        // GC?
-        iterator = null;
+    }
 
-        for (Connection connection : candidates) {
-            try {
-                connection.sendToUser("\r\nSession Timed Out Administratively");
-            } catch (IOException ex) {
-            }
-            connectionClose(connection);
+    private void scheduleKeepalive(WebSocketSession session) {
+        if (keepaliveSeconds > 0) {
+            timingWheel.schedule(() -> keepalive(session), 1000L * keepaliveSeconds);
         }
-        logger.trace("sessionIdleHouseKeeping end");
     }
 
-    public static Connection tokenToConnection(String token) {
-        Iterator<Map.Entry<String, Connection>> iterator = SessionMAP.entrySet().iterator();
+    private void keepalive(WebSocketSession session) {
+        if (session.isOpen()) {
+            // a send may block on a full socket, not on the timer thread
+            SessionThreads.execute(String.valueOf(session.getAttributes().get(SESSION_UUID)),
+                    SessionThreads.KEEPALIVE, () -> ping(session));
+            scheduleKeepalive(session);
+        }
+    }
 
-        while (token != null && iterator.hasNext()) {
-            Map.Entry<String, Connection> entry = iterator.next();
-            Connection connection = entry.getValue();
-            if (connection.getTerminalSessionInfo().getToken().equals(token)) {
-                return connection;
+    private static void ping(WebSocketSession session) {
+        // skip a round rather than wait on a busy session, it's not idle anyway
+        Object lock = session.getAttributes().get(SESSION_SEND_LOCK);
+        if (lock instanceof Lock && ((Lock) lock).tryLock()) {
+            try {
+                session.sendMessage(new PingMessage());
+            } catch (IOException | IllegalStateException ex) {
+                logger.debug("keepalive ping exception: {}", ex.getMessage());
+            } finally {
+                ((Lock) lock).unlock();
             }
         }
+    }
 
-        return null;
+    public static Connection tokenToConnection(String token) {
+        return sessionRegistry.byToken(token);
     }
 
     /**
@@ -582,22 +1099,30 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      * @return root level connection
      */
     public static Connection tokenToRootConnection(String token) {
-        Iterator<Map.Entry<String, Connection>> iterator = SessionMAP.entrySet().iterator();
-
-        while (token != null && iterator.hasNext()) {
-            Map.Entry<String, Connection> entry = iterator.next();
-            Connection connection = entry.getValue();
-            if (connection.getTerminalSessionInfo().getToken().equals(token)) {
-                if (!connection.getTerminalSessionInfo().getSessionType().equalsIgnoreCase(NEW)
-                        && connection.getTerminalSessionInfo().getParentToken() != null) {
-                    return tokenToRootConnection(connection.getTerminalSessionInfo().getParentToken());
-                }
+        return sessionRegistry.rootByToken(token);
+    }
 
-                return connection;
-            }
-        }
+    /**
+     * connection bound to webSocketSession, no registry lookup
+     *
+     * @param webSocketSession
+     * @return
+     */
+    public static Connection connectionOf(WebSocketSession webSocketSession) {
+        SessionContext sessionContext = SessionContext.of(webSocketSession);
+        return sessionContext != null ? sessionContext.getConnection() : null;
+    }
 
-        return null;
+    /**
+     * webSocketSession of a removed connection no longer reaches it
+     *
+     * @param connection
+     */
+    private static void unbind(Connection connection) {
+        SessionContext sessionContext = SessionContext.of(connection.getWebSocketSession());
+        if (sessionContext != null) {
+            sessionContext.swap(connection, null);
+        }
     }
 
     /**
@@ -605,63 +1130,53 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      * @param sessionId
      */
     public static void removeFromSessionMap(String sessionId) {
-        SessionMAP.remove(sessionId);
+        sessionRegistry.remove(sessionId);
     }
 
     /*
     public static void dumpSessionMap() {
-        SessionMAP.entrySet().forEach((Map.Entry<String, Connection> entry) -> {
-            logger.debug("{} -> {}", entry.getKey(), entry.getValue());
+        sessionRegistry.all().forEach((Connection connection) -> {
+            logger.debug("{} -> {}", connection.getTerminalSessionInfo().getSessionId(), connection);
         });
     }
      */
     /**
      *
-     * @param sessionId
-     * @param connection
+     * @return
      */
-    public static void addToSessionMap(String sessionId, Connection connection) {
-        SessionMAP.put(sessionId, connection);
+    public static TimingWheel getTimingWheel() {
+        return timingWheel;
     }
 
     /**
      *
-     * @param children
-     * @param message
+     * @return
      */
-    public static void sendToChildren(ArrayList<String> children, TextMessage message) {
-        if (children != null) {
-            for (String child : children) {
-                Connection connection = SessionMAP.get(child);
-                if (connection != null) {
-                    logger.trace("also send to child: {}", child);
-                    try {
-                        connection.sendToUser(message);
-                    } catch (IOException ex) {
-                    }
-                }
-            }
-        }
+    public static SessionRegistry getSessionRegistry() {
+        return sessionRegistry;
     }
 
     /**
      *
-     * @param children
-     * @param message
+     * @return
      */
-    public static void sendToChildren(ArrayList<String> children, BinaryMessage message) {
-        if (children != null) {
-            for (String child : children) {
-                Connection connection = SessionMAP.get(child);
-                if (connection != null) {
-                    logger.trace("also send to child: {}", child);
-                    try {
-                        connection.sendToUser(message);
-                    } catch (IOException ex) {
-                    }
-                }
-            }
+    public static ClusterRegistry getClusterRegistry() {
+        return clusterRegistry;
+    }
+
+    /**
+     * root session of token, on this node or (as last published) another one
+     *
+     * @param token
+     * @return null if none
+     */
+    public static TerminalSessionInfo rootSessionInfo(String token) {
+        Connection connection = tokenToRootConnection(token);
+        if (connection != null) {
+            return connection.getTerminalSessionInfo();
         }
+        ClusterSession clusterSession = clusterRegistry == null ? null : clusterRegistry.lookup(token);
+        return clusterSession == null ? null : clusterSession.getTerminalSessionInfo();
     }
 
     /**
@@ -670,28 +1185,21 @@ public class WebTerminalServiceImpl implements WebTerminalService {
      */
     public static void updateParticipantMessage(Connection parent) {
         if (parent != null) {  // could be null
-            List<String> children = parent.getTerminalSessionInfo().getChildren();
-            if (children != null) {
+            Collection<Connection> children = sessionRegistry.children(parent);
+            if (!children.isEmpty()) {
                 StringBuilder buf = new StringBuilder("JOINED: ");
                 buf.append(parent.getTerminalSessionInfo().getWebUserName());
-                for (String child : children) {
-                    Connection connection = SessionMAP.get(child);
-                    if (connection != null) {
-                        buf.append(" +");
-                        buf.append(connection.getTerminalSessionInfo().getWebUserName());
-                    }
+                for (Connection connection : children) {
+                    buf.append(" +");
+                    buf.append(connection.getTerminalSessionInfo().getWebUserName());
                 }
                 TextMessage msg = toClientMessage(buf.toString());
 
-                for (String child : children) {
-                    Connection connection = SessionMAP.get(child);
-
-                    if (connection != null) {
-                        logger.trace("also update to child: {}", child);
-                        try {
-                            connection.sendToUser(msg);
-                        } catch (IOException ex) {
-                        }
+                for (Connection connection : children) {
+                    logger.trace("also update to child: {}", connection.getTerminalSessionInfo().getSessionId());
+                    try {
+                        connection.sendToUser(msg);
+                    } catch (IOException ex) {
                     }
                 }
                 try {
@@ -714,7 +1222,7 @@ public class WebTerminalServiceImpl implements WebTerminalService {
                 TextMessage tm = toClientRowCol(rows, cols);
 
                 for (String child : children) {
-                    Connection connection = SessionMAP.get(child);
+                    Connection connection = sessionRegistry.get(child);
                     if (connection != null) {
                         logger.trace("also send to child: {}", child);
                         try {
@@ -741,25 +1249,37 @@ public class WebTerminalServiceImpl implements WebTerminalService {
 
     /**
      *
-     * @param message
-     * @return
-     * @throws JsonProcessingException
+     * @param session
+     * @return true if session negotiated binary framing
      */
-    public static TextMessage toClientBytes(byte[] message) throws JsonProcessingException {
-        // as normal string, instead of encoded           (n) type string
-        TwoWayMessage toClient = new TwoWayMessage("n", new String(message, StandardCharsets.UTF_8));
-        String json = objectMapper.writeValueAsString(toClient);
-        return new TextMessage(json);
+    public static boolean isBinaryProtocol(WebSocketSession session) {
+        Object protocol = session.getAttributes().get(SESSION_PROTOCOL);
+        return protocol != null && (Integer) protocol >= PROTOCOL_BINARY;
+    }
 
-        /*
-        // encoded/bigger size, but guaranteed ship over  (e) type encoded
-        String messageEncoded = Base64.getEncoder().encodeToString(message);
-        TwoWayMessage toClient = new TwoWayMessage("e", messageEncoded);
-        String json = objectMapper.writeValueAsString(toClient);
-        return new TextMessage(json);
-         */
+    /**
+     * ordered send, a lock not a monitor so virtual threads don't pin
+     * during network writes
+     *
+     * @param session
+     * @param message
+     * @throws IOException
+     */
+    public static void sendLocked(WebSocketSession session, WebSocketMessage<?> message) throws IOException {
+        Lock lock = (Lock) session.getAttributes().get(SESSION_SEND_LOCK);
+        if (lock == null) {
+            session.sendMessage(message);
+            return;
+        }
+        lock.lock();
+        try {
+            session.sendMessage(message);
+        } finally {
+            lock.unlock();
+        }
     }
 
+
     /**
      *
      * @param message
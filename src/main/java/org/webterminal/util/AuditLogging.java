@@ -17,19 +17,38 @@
  */
 package org.webterminal.util;
 
+import org.webterminal.connection.OutputChunk;
+import org.webterminal.pojo.RowsCols;
 import org.webterminal.pojo.TerminalSessionInfo;
 
 public interface AuditLogging {
 
     /**
-     * logs traffic data for session of terminalSessionInfo
+     * logs traffic data for session of terminalSessionInfo, chunk is only
+     * valid during the call, copy if it needs to be kept
      *
      * @param terminalSessionInfo
-     * @param data
+     * @param chunk
      */
     public void logTraffic(
             TerminalSessionInfo terminalSessionInfo,
-            byte[] data);
+            OutputChunk chunk);
+
+    /**
+     * user input, on the caller's thread, data can be reused on return
+     *
+     * @param terminalSessionInfo
+     * @param data
+     */
+    public void logInput(TerminalSessionInfo terminalSessionInfo, byte[] data);
+
+    /**
+     * screen size change
+     *
+     * @param terminalSessionInfo
+     * @param rowsCols
+     */
+    public void logResize(TerminalSessionInfo terminalSessionInfo, RowsCols rowsCols);
 
     /**
      * close log
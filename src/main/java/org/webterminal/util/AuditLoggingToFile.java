@@ -17,29 +17,36 @@
  */
 package org.webterminal.util;
 
+import org.webterminal.connection.OutputChunk;
+import org.webterminal.pojo.RowsCols;
 import org.webterminal.pojo.TerminalSessionInfo;
-import java.io.BufferedWriter;
-import java.io.IOException;
 import static java.lang.System.arraycopy;
-import java.nio.charset.StandardCharsets;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+/**
+ * ring of recent output for JOIN/WATCH, and with auditLogging ON the file
+ * log and a timed recording (see SessionRecording), written by AuditWriter
+ * off the reader thread
+ */
 public class AuditLoggingToFile implements AuditLogging {
 
-    private static final Logger logger = LoggerFactory.getLogger(AuditLoggingToFile.class);
+    private static boolean recording = true;
+    // off unless asked for, keystrokes include passwords typed without echo
+    private static boolean recordInput = false;
 
     private final String auditLogDir;
 
+    // created on first audited chunk
+    private volatile AuditWriter.AuditFile auditFile;
+
+    // same, input and resizes only go into a recording already started
+    private volatile AuditWriter.AuditFile recordingFile;
+
     private final int bufsize;
 
-    private final ArrayList<byte[]> bufferedChain = new ArrayList<>();
+    // tail of output for joined sessions, fixed ring, no per chunk allocation
+    private final byte[] ring;
+    private int ringEnd = 0;
     private int bufferedLength = 0;
 
     /**
@@ -49,6 +56,7 @@ public class AuditLoggingToFile implements AuditLogging {
     public AuditLoggingToFile(String auditLogDir) {
         this.auditLogDir = auditLogDir;
         bufsize = 24 * 80;
+        ring = new byte[bufsize];
     }
 
     /**
@@ -59,16 +67,32 @@ public class AuditLoggingToFile implements AuditLogging {
     public AuditLoggingToFile(String auditLogDir, int bufsize) {
         this.auditLogDir = auditLogDir;
         this.bufsize = bufsize;
+        ring = new byte[bufsize];
     }
 
-    private void saveToChain(byte[] data) {
-        bufferedChain.add(data);
-        bufferedLength += data.length;
+    /**
+     *
+     * @param record recordings next to audit logs
+     * @param input user input in recordings too, passwords included
+     */
+    public static void configureRecording(boolean record, boolean input) {
+        recording = record;
+        recordInput = input;
+    }
 
-        while (bufferedLength > bufsize && bufferedChain.size() > 1) {
-            byte[] popped = bufferedChain.remove(0);
-            bufferedLength -= popped.length;
+    private synchronized void saveToRing(byte[] data, int offset, int length) {
+        if (length >= bufsize) {
+            arraycopy(data, offset + length - bufsize, ring, 0, bufsize);
+            ringEnd = 0;
+            bufferedLength = bufsize;
+            return;
         }
+
+        int first = Math.min(length, bufsize - ringEnd);
+        arraycopy(data, offset, ring, ringEnd, first);
+        arraycopy(data, offset + first, ring, 0, length - first);
+        ringEnd = (ringEnd + length) % bufsize;
+        bufferedLength = Math.min(bufferedLength + length, bufsize);
     }
 
     /**
@@ -76,14 +100,12 @@ public class AuditLoggingToFile implements AuditLogging {
      * @return
      */
     @Override
-    public byte[] bufferedData() {
+    public synchronized byte[] bufferedData() {
         byte[] combo = new byte[bufferedLength];
-        int at = 0;
-        for (int i = 0; i < bufferedChain.size(); i++) {
-            byte[] one = bufferedChain.get(i);
-            arraycopy(one, 0, combo, at, one.length);
-            at += one.length;
-        }
+        int start = (ringEnd - bufferedLength + bufsize) % bufsize;
+        int first = Math.min(bufferedLength, bufsize - start);
+        arraycopy(ring, start, combo, 0, first);
+        arraycopy(ring, 0, combo, first, bufferedLength - first);
 
         return combo;
     }
@@ -91,44 +113,59 @@ public class AuditLoggingToFile implements AuditLogging {
     /**
      *
      * @param terminalSessionInfo
-     * @param data
+     * @param chunk
      */
     @Override
-    public void logTraffic(TerminalSessionInfo terminalSessionInfo, byte[] data) {
-        saveToChain(data);
+    public void logTraffic(TerminalSessionInfo terminalSessionInfo, OutputChunk chunk) {
+        saveToRing(chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
 
         if (terminalSessionInfo.getAuditLogging().equals("ON")) {
-            if (terminalSessionInfo.getLogWriter() == null) {
-                Path path = Paths.get(auditLogDir + "/" + terminalSessionInfo.getLogFileName() + ".log");
-                if (Files.notExists(path)) {
-                    try {
-                        Files.createFile(path);
-                    } catch (IOException ex) {
-                        logger.warn("logTraffic failed to create file {}: {}", path.getFileName(), ex.getMessage());
-                    }
-                }
-
-                try {
-                    BufferedWriter bw = Files.newBufferedWriter(
-                            path,
-                            Charset.defaultCharset(),
-                            StandardOpenOption.APPEND);
-                    terminalSessionInfo.setLogWriter(bw);
-                } catch (IOException ex) {
-                    logger.warn("logTraffic failed to create BufferedWriter: {}", ex.getMessage());
-                }
+            if (auditFile == null) {
+                auditFile = AuditWriter.open(Paths.get(auditLogDir + "/" + terminalSessionInfo.getLogFileName() + ".log"),
+                        terminalSessionInfo.getLogFileName());
             }
-
-            if (terminalSessionInfo.getLogWriter() != null) {
-                try {
-                    terminalSessionInfo.getLogWriter().write(new String(data, StandardCharsets.UTF_8));
-                } catch (IOException ex) {
-                    logger.warn("logTraffic failed to write: {}", ex.getMessage());
+            // raw bytes, stored as is whatever the charset
+            auditFile.write(chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
+
+            if (recording) {
+                if (recordingFile == null) {
+                    recordingFile = AuditWriter.openRecording(
+                            Paths.get(auditLogDir + "/" + terminalSessionInfo.getLogFileName() + SessionRecording.EXTENSION),
+                            terminalSessionInfo.getLogFileName(), terminalSessionInfo.getWebUserName(),
+                            terminalSessionInfo.getRows(), terminalSessionInfo.getCols());
                 }
+                recordingFile.record(SessionRecording.OUTPUT, chunk.getBuffer(), chunk.getOffset(), chunk.getLength());
             }
         }
     }
 
+    /**
+     *
+     * @param terminalSessionInfo
+     * @param data
+     */
+    @Override
+    public void logInput(TerminalSessionInfo terminalSessionInfo, byte[] data) {
+        AuditWriter.AuditFile file = recordingFile;
+        if (file != null && recordInput) {
+            file.record(SessionRecording.INPUT, data, 0, data.length);
+        }
+    }
+
+    /**
+     *
+     * @param terminalSessionInfo
+     * @param rowsCols
+     */
+    @Override
+    public void logResize(TerminalSessionInfo terminalSessionInfo, RowsCols rowsCols) {
+        AuditWriter.AuditFile file = recordingFile;
+        if (file != null) {
+            byte[] size = SessionRecording.rowsCols(rowsCols.getRows(), rowsCols.getCols());
+            file.record(SessionRecording.RESIZE, size, 0, size.length);
+        }
+    }
+
     /**
      *
      * @param terminalSessionInfo
@@ -136,12 +173,11 @@ public class AuditLoggingToFile implements AuditLogging {
     @Override
     public void logClose(TerminalSessionInfo terminalSessionInfo
     ) {
-        if (terminalSessionInfo.getLogWriter() != null) {
-            try {
-                terminalSessionInfo.getLogWriter().close();
-            } catch (IOException ex) {
-                logger.info("logClose exception: {}", ex.getMessage());
-            }
+        if (auditFile != null) {
+            auditFile.close();
+        }
+        if (recordingFile != null) {
+            recordingFile.close();
         }
     }
 }
@@ -0,0 +1,493 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webterminal.pojo.RowsCols;
+
+/**
+ * audit logs written off the backend reader threads. Readers copy output
+ * into pooled slabs and hand them over a lock free queue; a few writer
+ * threads, each owning a share of the files, gather them in a direct buffer
+ * and append to the file's FileChannel once per burst, when full, or every
+ * flushMillis under steady load. When a queue is full the overflow policy
+ * decides: DROP or BLOCK the reader.
+ *
+ * Files hold the bytes exactly as the device sent them, no charset applied,
+ * after a short header: a "WEBTERMINAL-AUDIT 1" line, "name: value" lines,
+ * then an empty line. Recordings are written the same way, as events with
+ * their time index, see SessionRecording
+ */
+public class AuditWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditWriter.class);
+
+    private static final int SLAB_SIZE = 8192;
+    private static final int STAGING_SIZE = 256 * 1024;
+    private static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private static int queueSize = 4096;
+    private static int writerCount = 1;
+    private static long flushNanos = TimeUnit.MILLISECONDS.toNanos(200);
+    private static AuditOverflowPolicy overflowPolicy = AuditOverflowPolicy.DROP;
+
+    private static Lane[] lanes;
+    private static final AtomicInteger nextLane = new AtomicInteger();
+    private static final AtomicLong droppedBytes = new AtomicLong();
+
+    private AuditWriter() {
+    }
+
+    /**
+     * before the first file is opened
+     *
+     * @param size queued slabs per writer at most
+     * @param writers writer threads
+     * @param flushMillis longest a written slab waits for a flush under load
+     * @param policy
+     */
+    public static synchronized void configure(int size, int writers, int flushMillis, AuditOverflowPolicy policy) {
+        queueSize = Math.max(16, size);
+        writerCount = Math.max(1, writers);
+        flushNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushMillis));
+        overflowPolicy = policy;
+    }
+
+    /**
+     * file is created and opened by its writer on first write
+     *
+     * @param path
+     * @param session recorded in the header of a new file
+     * @return
+     */
+    public static AuditFile open(Path path, String session) {
+        return new AuditFile(path, session, null, null, nextLane());
+    }
+
+    /**
+     * session recording, record() its events
+     *
+     * @param path
+     * @param session
+     * @param user owner, for the header
+     * @param rows size at start, for the header
+     * @param cols
+     * @return
+     */
+    public static AuditFile openRecording(Path path, String session, String user, int rows, int cols) {
+        return new AuditFile(path, session, user, new RowsCols(rows, cols), nextLane());
+    }
+
+    private static Lane nextLane() {
+        Lane[] started = lanes();
+        return started[Math.floorMod(nextLane.getAndIncrement(), started.length)];
+    }
+
+    /**
+     * write out what is queued, close files, stop writers
+     */
+    public static synchronized void shutdown() {
+        if (lanes != null) {
+            for (Lane lane : lanes) {
+                lane.stop();
+            }
+        }
+    }
+
+    /**
+     *
+     * @return bytes left out of audit logs under DROP, since start
+     */
+    public static long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+
+    private static synchronized Lane[] lanes() {
+        if (lanes == null) {
+            lanes = new Lane[writerCount];
+            for (int i = 0; i < writerCount; i++) {
+                lanes[i] = new Lane(i);
+            }
+            logger.info("audit writers: {}, queue {} x {} bytes, overflow {}", writerCount, queueSize, SLAB_SIZE, overflowPolicy);
+        }
+        return lanes;
+    }
+
+    /**
+     * one audit log file or recording, write() or record() from its
+     * connection's threads
+     */
+    public static final class AuditFile {
+
+        private final Path path;
+        private final String session;
+        // recordings only, owner and size at start
+        private final String user;
+        private final RowsCols startSize;
+        private final long startNanos = System.nanoTime();
+        private final Lane lane;
+        private final AtomicLong dropped = new AtomicLong();
+
+        // writer thread only
+        private FileChannel channel;
+        private FileChannel index;
+        private long size;
+        private long nextIndexMillis;
+        private int lastMillis;
+        private boolean failed;
+
+        private AuditFile(Path path, String session, String user, RowsCols startSize, Lane lane) {
+            this.path = path;
+            this.session = session;
+            this.user = user;
+            this.startSize = startSize;
+            this.lane = lane;
+        }
+
+        private boolean isRecording() {
+            return startSize != null;
+        }
+
+        /**
+         * copied, data can be reused on return
+         *
+         * @param data
+         * @param offset
+         * @param length
+         */
+        public void write(byte[] data, int offset, int length) {
+            record((byte) 0, data, offset, length);
+        }
+
+        /**
+         * recording event timed now, copied, data can be reused on return
+         *
+         * @param type SessionRecording event type
+         * @param data
+         * @param offset
+         * @param length
+         */
+        public void record(byte type, byte[] data, int offset, int length) {
+            int millis = (int) Math.min(Integer.MAX_VALUE,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            BufferPool pool = BufferPool.forSize(SLAB_SIZE);
+            while (length > 0) {
+                int n = Math.min(length, SLAB_SIZE);
+                byte[] slab = pool.acquire();
+                System.arraycopy(data, offset, slab, 0, n);
+                lane.offer(new Record(this, slab, n, type, millis));
+                offset += n;
+                length -= n;
+            }
+        }
+
+        /**
+         * after what was written so far, never dropped
+         */
+        public void close() {
+            lane.offer(new Record(this, null, -1, (byte) 0, 0));
+        }
+    }
+
+    private static final class Record {
+
+        private final AuditFile file;
+        private final byte[] slab;
+        private final int length;
+        private final byte type;
+        private final int millis;
+
+        private Record(AuditFile file, byte[] slab, int length, byte type, int millis) {
+            this.file = file;
+            this.slab = slab;
+            this.length = length;
+            this.type = type;
+            this.millis = millis;
+        }
+
+        private boolean isClose() {
+            return length < 0;
+        }
+    }
+
+    private static final class Lane implements Runnable {
+
+        private final ConcurrentLinkedQueue<Record> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger queued = new AtomicInteger();
+        private final Thread thread;
+        private volatile boolean waiting;
+        private volatile boolean running = true;
+
+        // writer thread only: bytes gathered for one file, not written yet
+        private final ByteBuffer staging = ByteBuffer.allocateDirect(STAGING_SIZE);
+        private AuditFile stagedFile;
+        private final ByteBuffer eventHeader = ByteBuffer.allocate(SessionRecording.EVENT_HEADER);
+        // index entries for stagedFile, written once the data they point at is
+        private final ByteBuffer pendingIndex = ByteBuffer.allocate(SessionRecording.INDEX_ENTRY * 64);
+
+        private Lane(int index) {
+            thread = new Thread(this, "audit-writer-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        private void offer(Record record) {
+            if (!record.isClose()) {
+                while (queued.incrementAndGet() > queueSize) {
+                    queued.decrementAndGet();
+                    if (overflowPolicy == AuditOverflowPolicy.DROP || !running) {
+                        record.file.dropped.addAndGet(record.length);
+                        droppedBytes.addAndGet(record.length);
+                        BufferPool.forSize(SLAB_SIZE).release(record.slab);
+                        return;
+                    }
+                    LockSupport.unpark(thread);
+                    LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+                }
+            } else {
+                queued.incrementAndGet();
+            }
+            queue.offer(record);
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        private void stop() {
+            running = false;
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.NANOSECONDS.toMillis(flushNanos) + 5000);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public void run() {
+            long lastFlush = System.nanoTime();
+            while (true) {
+                Record record = queue.poll();
+                if (record == null) {
+                    // burst over, out it goes
+                    flush();
+                    lastFlush = System.nanoTime();
+                    if (!running) {
+                        break;
+                    }
+                    waiting = true;
+                    if (queue.isEmpty()) {
+                        LockSupport.parkNanos(flushNanos);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                queued.decrementAndGet();
+
+                if (record.isClose()) {
+                    close(record.file);
+                } else {
+                    stage(record);
+                }
+
+                if (System.nanoTime() - lastFlush > flushNanos) {
+                    flush();
+                    lastFlush = System.nanoTime();
+                }
+            }
+            logger.debug("{} stopped", thread.getName());
+        }
+
+        private void stage(Record record) {
+            AuditFile file = record.file;
+            try {
+                if (file.channel == null && !file.failed) {
+                    open(file);
+                }
+                if (file.channel == null) {
+                    return;
+                }
+                // one file at a time in staging, ordering per file is kept
+                if (stagedFile != file || staging.remaining() < record.length) {
+                    flush();
+                }
+                stagedFile = file;
+
+                long dropped = file.dropped.getAndSet(0);
+                if (dropped > 0) {
+                    byte[] note = droppedNote(dropped);
+                    if (file.isRecording()) {
+                        putEvent(SessionRecording.MARKER, record.millis, note, note.length);
+                    } else {
+                        put(note, note.length);
+                    }
+                }
+                if (file.isRecording()) {
+                    putEvent(record.type, record.millis, record.slab, record.length);
+                } else {
+                    put(record.slab, record.length);
+                }
+            } finally {
+                BufferPool.forSize(SLAB_SIZE).release(record.slab);
+            }
+        }
+
+        private static byte[] droppedNote(long dropped) {
+            return ("\r\n[audit: " + dropped + " bytes not logged, writer behind]\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        private void put(byte[] data, int length) {
+            if (staging.remaining() < length) {
+                flush();
+            }
+            staging.put(data, 0, length);
+            stagedFile.size += length;
+        }
+
+        private void putEvent(byte type, int millis, byte[] data, int length) {
+            AuditFile file = stagedFile;
+            long offset = file.size;
+            file.lastMillis = millis;
+            eventHeader.clear();
+            eventHeader.put(type).putInt(millis).putInt(length);
+            put(eventHeader.array(), SessionRecording.EVENT_HEADER);
+            put(data, length);
+            // sparse, and only forward so a binary search works
+            if (millis >= file.nextIndexMillis && file.index != null) {
+                if (!pendingIndex.hasRemaining()) {
+                    flush();
+                }
+                pendingIndex.putLong(millis).putLong(offset);
+                file.nextIndexMillis = millis + SessionRecording.INDEX_MILLIS;
+            }
+        }
+
+        private void flush() {
+            staging.flip();
+            pendingIndex.flip();
+            if (stagedFile != null) {
+                try {
+                    while (staging.hasRemaining()) {
+                        stagedFile.channel.write(staging);
+                    }
+                    // a live reader never finds an offset past the data
+                    writeIndex(stagedFile);
+                } catch (IOException ex) {
+                    logger.warn("audit write failed {}: {}", stagedFile.path.getFileName(), ex.getMessage());
+                }
+            }
+            staging.clear();
+            pendingIndex.clear();
+        }
+
+        private void writeIndex(AuditFile file) {
+            if (file.index == null || !pendingIndex.hasRemaining()) {
+                return;
+            }
+            try {
+                while (pendingIndex.hasRemaining()) {
+                    file.index.write(pendingIndex);
+                }
+            } catch (IOException ex) {
+                logger.warn("recording index write failed {}: {}", file.path.getFileName(), ex.getMessage());
+                closeQuietly(file.index);
+                file.index = null;
+            }
+        }
+
+        private void open(AuditFile file) {
+            try {
+                file.channel = FileChannel.open(file.path,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                if (file.channel.size() == 0) {
+                    file.channel.write(ByteBuffer.wrap(file.isRecording()
+                            ? SessionRecording.header(file.session, file.user, file.startSize.getRows(), file.startSize.getCols())
+                            : header(file)));
+                }
+                file.size = file.channel.size();
+                if (file.isRecording()) {
+                    file.index = FileChannel.open(SessionRecording.indexOf(file.path),
+                            StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+            } catch (IOException ex) {
+                // give up on this file, don't retry per chunk
+                file.failed = true;
+                logger.warn("audit failed to open {}: {}", file.path.getFileName(), ex.getMessage());
+            }
+        }
+
+        private static void closeQuietly(FileChannel channel) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ex) {
+                    logger.info("audit close exception: {}", ex.getMessage());
+                }
+            }
+        }
+
+        private static byte[] header(AuditFile file) {
+            return ("WEBTERMINAL-AUDIT 1\n"
+                    + "session: " + file.session + "\n"
+                    + "started: " + Instant.now() + "\n"
+                    + "content: raw device output\n"
+                    + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        private void close(AuditFile file) {
+            if (file.channel != null) {
+                if (stagedFile == file) {
+                    flush();
+                    stagedFile = null;
+                }
+                long dropped = file.dropped.getAndSet(0);
+                if (dropped > 0) {
+                    flush();
+                    stagedFile = file;
+                    byte[] note = droppedNote(dropped);
+                    if (file.isRecording()) {
+                        putEvent(SessionRecording.MARKER, file.lastMillis, note, note.length);
+                    } else {
+                        put(note, note.length);
+                    }
+                    flush();
+                    stagedFile = null;
+                }
+                closeQuietly(file.channel);
+                closeQuietly(file.index);
+                file.channel = null;
+                file.index = null;
+            }
+            // no reopen by a late write
+            file.failed = true;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BufferPool {
+
+    // one pool per buffer size, sizes come from coalescing config so only a few
+    private static final Map<Integer, BufferPool> pools = new ConcurrentHashMap<>();
+
+    private static final int MAX_POOLED = 256;
+
+    private final int bufferSize;
+    private final ConcurrentLinkedQueue<byte[]> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger freeCount = new AtomicInteger();
+
+    private BufferPool(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     *
+     * @param bufferSize
+     * @return shared pool handing out buffers of exactly bufferSize
+     */
+    public static BufferPool forSize(int bufferSize) {
+        return pools.computeIfAbsent(bufferSize, BufferPool::new);
+    }
+
+    /**
+     *
+     * @return a pooled buffer, or a new one if none free
+     */
+    public byte[] acquire() {
+        byte[] buffer = free.poll();
+        if (buffer != null) {
+            freeCount.decrementAndGet();
+            return buffer;
+        }
+        return new byte[bufferSize];
+    }
+
+    /**
+     * caller must not touch buffer afterwards
+     *
+     * @param buffer
+     */
+    public void release(byte[] buffer) {
+        if (buffer != null && buffer.length == bufferSize) {
+            if (freeCount.incrementAndGet() <= MAX_POOLED) {
+                free.offer(buffer);
+            } else {
+                freeCount.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+/**
+ * recognizes keystroke messages, {"t":"d","p":"..."} exactly as the client
+ * sends them, and turns the payload straight into UTF-8 bytes for the
+ * backend. Anything else returns null and goes through Jackson as before
+ */
+public final class InboundFrames {
+
+    private static final String DATA_PREFIX = "{\"t\":\"d\",\"p\":\"";
+    private static final String DATA_SUFFIX = "\"}";
+    private static final byte REPLACEMENT = '?';
+
+    private InboundFrames() {
+    }
+
+    /**
+     *
+     * @param message
+     * @return payload bytes, null if not a plain data message
+     */
+    public static byte[] parseData(String message) {
+        int end = message.length() - DATA_SUFFIX.length();
+        if (end < DATA_PREFIX.length()
+                || !message.startsWith(DATA_PREFIX)
+                || !message.endsWith(DATA_SUFFIX)) {
+            return null;
+        }
+
+        // worst case 3 bytes per char, surrogate pairs are 4 bytes for 2 chars
+        byte[] out = new byte[(end - DATA_PREFIX.length()) * 3];
+        int n = 0;
+        int i = DATA_PREFIX.length();
+        while (i < end) {
+            int c = message.charAt(i++);
+            if (c == '"' || c < 0x20) {
+                // unescaped quote before the end or raw control char, not
+                // what the client sends and Jackson rejects those anyway
+                return null;
+            } else if (c == '\\') {
+                if (i >= end) {
+                    return null;
+                }
+                char e = message.charAt(i++);
+                switch (e) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        c = e;
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'u':
+                        if (i + 4 > end) {
+                            return null;
+                        }
+                        c = hex4(message, i);
+                        if (c < 0) {
+                            return null;
+                        }
+                        i += 4;
+                        break;
+                    default:
+                        return null;
+                }
+            }
+
+            if (c < 0x80) {
+                out[n++] = (byte) c;
+            } else if (c < 0x800) {
+                out[n++] = (byte) (0xc0 | (c >> 6));
+                out[n++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate((char) c) && i < end) {
+                int low = lowSurrogate(message, i, end);
+                if (low < 0) {
+                    out[n++] = REPLACEMENT;
+                    continue;
+                }
+                i += message.charAt(i) == '\\' ? 6 : 1;
+                int cp = Character.toCodePoint((char) c, (char) low);
+                out[n++] = (byte) (0xf0 | (cp >> 18));
+                out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[n++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate((char) c)) {
+                // lone surrogate, same replacement String.getBytes() uses
+                out[n++] = REPLACEMENT;
+            } else {
+                n = encode3(out, n, c);
+            }
+        }
+
+        if (n == out.length) {
+            return out;
+        }
+        byte[] data = new byte[n];
+        System.arraycopy(out, 0, data, 0, n);
+        return data;
+    }
+
+    private static int encode3(byte[] out, int n, int c) {
+        out[n++] = (byte) (0xe0 | (c >> 12));
+        out[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        out[n++] = (byte) (0x80 | (c & 0x3f));
+        return n;
+    }
+
+    // low surrogate at i, raw or as \\uXXXX, -1 if none
+    private static int lowSurrogate(String message, int i, int end) {
+        int c = message.charAt(i);
+        if (c == '\\') {
+            if (i + 6 > end || message.charAt(i + 1) != 'u') {
+                return -1;
+            }
+            c = hex4(message, i + 2);
+        }
+        return c >= 0 && Character.isLowSurrogate((char) c) ? c : -1;
+    }
+
+    private static int hex4(String message, int i) {
+        int value = 0;
+        for (int k = i; k < i + 4; k++) {
+            int digit = hexDigit(message.charAt(k));
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    // ASCII only, Character.digit() would take fullwidth and other digits
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,103 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class OutputCoalescer {
+
+    // how often to check for more data while lingering
+    private static final long POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(250);
+
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final int echoBytes;
+
+    /**
+     *
+     * @param maxBytes flush when this many bytes are buffered
+     * @param lingerMillis flush after this much quiet time, 0 to disable
+     * @param echoBytes reads up to this size look like keystroke echo, flush
+     * right away
+     */
+    public OutputCoalescer(int maxBytes, int lingerMillis, int echoBytes) {
+        this.maxBytes = Math.max(maxBytes, 1024);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(lingerMillis, 0));
+        this.echoBytes = Math.max(echoBytes, 0);
+    }
+
+    /**
+     * one frame per read, same as without coalescing
+     *
+     * @return
+     */
+    public static OutputCoalescer passThrough() {
+        return new OutputCoalescer(1024, 0, 0);
+    }
+
+    /**
+     *
+     * @return read buffer size needed
+     */
+    public int getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * blocks for the first chunk, then keeps collecting whatever arrives until
+     * maxBytes buffered or the stream stays quiet for lingerMillis
+     *
+     * @param inputStream
+     * @param buffer at least offset + getMaxBytes() long
+     * @param offset where data goes in buffer
+     * @return bytes filled, -1 on EOF with nothing buffered
+     * @throws IOException
+     */
+    public int fill(InputStream inputStream, byte[] buffer, int offset) throws IOException {
+        int limit = Math.min(maxBytes, buffer.length - offset);
+        int n = inputStream.read(buffer, offset, limit);
+
+        // EOF, or single keystroke echo: interactive latency comes first
+        if (n <= echoBytes || lingerNanos == 0) {
+            return n;
+        }
+
+        long deadline = System.nanoTime() + lingerNanos;
+        while (n < limit) {
+            int available = inputStream.available();
+            if (available > 0) {
+                int i = inputStream.read(buffer, offset + n, Math.min(available, limit - n));
+                if (i <= 0) {
+                    break;
+                }
+                n += i;
+                // quiet window restarts with every arrival, bounded by limit
+                deadline = System.nanoTime() + lingerNanos;
+            } else if (System.nanoTime() - deadline >= 0) {
+                break;
+            } else {
+                LockSupport.parkNanos(POLL_NANOS);
+            }
+        }
+
+        return n;
+    }
+}
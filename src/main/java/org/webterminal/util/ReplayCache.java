@@ -0,0 +1,65 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * ids of one time tokens already used, each kept only until its token
+ * expires anyway. Bounded, refuses (fails closed) once full
+ */
+public class ReplayCache {
+
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    private final int capacity;
+    private final TimingWheel timingWheel;
+
+    /**
+     *
+     * @param capacity
+     * @param timingWheel
+     */
+    public ReplayCache(int capacity, TimingWheel timingWheel) {
+        this.capacity = capacity;
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     *
+     * @param id
+     * @param expiresAt epoch millis, forgotten after
+     * @return true if first use, false if used before or cache full
+     */
+    public boolean use(String id, long expiresAt) {
+        if (used.size() >= capacity || !used.add(id)) {
+            return false;
+        }
+        timingWheel.schedule(() -> used.remove(id), expiresAt - System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     *
+     * @param id
+     * @return
+     */
+    public boolean isUsed(String id) {
+        return used.contains(id);
+    }
+}
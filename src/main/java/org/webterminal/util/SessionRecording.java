@@ -0,0 +1,404 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * timestamped session recording, a compact binary take on asciicast.
+ *
+ * A text header like the audit log's: "WEBTERMINAL-REC 1", "name: value"
+ * lines (session, user, started, rows, cols), an empty line. Then events: type
+ * byte, milliseconds since start (int), payload length (int), payload.
+ * Output and input payloads are raw bytes, a resize is rows then cols, 2
+ * bytes each, big endian.
+ *
+ * Next to it, ".idx" holds a sparse time index: millis then file offset of
+ * an event, longs, at most one entry per INDEX_MILLIS, so a seek is a binary
+ * search over the index and a short scan
+ */
+public class SessionRecording {
+
+    /**
+     *
+     */
+    public static final String MAGIC = "WEBTERMINAL-REC 1";
+
+    /**
+     *
+     */
+    public static final String EXTENSION = ".rec";
+
+    /**
+     * appended to the recording's file name
+     */
+    public static final String INDEX_EXTENSION = ".idx";
+
+    /**
+     * backend output
+     */
+    public static final byte OUTPUT = 'o';
+
+    /**
+     * user input
+     */
+    public static final byte INPUT = 'i';
+
+    /**
+     * screen size change
+     */
+    public static final byte RESIZE = 'r';
+
+    /**
+     * note from the recorder, e.g. a gap under DROP
+     */
+    public static final byte MARKER = 'm';
+
+    /**
+     * type, millis, length
+     */
+    public static final int EVENT_HEADER = 9;
+
+    /**
+     * millis, offset
+     */
+    public static final int INDEX_ENTRY = 16;
+
+    /**
+     * index entry at most this often
+     */
+    public static final int INDEX_MILLIS = 1000;
+
+    private SessionRecording() {
+    }
+
+    /**
+     *
+     * @param session
+     * @param user web user the recording belongs to
+     * @param rows
+     * @param cols
+     * @return
+     */
+    public static byte[] header(String session, String user, int rows, int cols) {
+        return (MAGIC + "\n"
+                + "session: " + oneLine(session) + "\n"
+                + "user: " + oneLine(user) + "\n"
+                + "started: " + Instant.now() + "\n"
+                + "rows: " + rows + "\n"
+                + "cols: " + cols + "\n"
+                + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    // no header line of someone else's making
+    private static String oneLine(String value) {
+        return String.valueOf(value).replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * without opening the index or reading events
+     *
+     * @param path
+     * @return header lines, name to value
+     * @throws IOException not a session recording
+     */
+    public static Map<String, String> readHeader(Path path) throws IOException {
+        Map<String, String> header = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            channel.read(buffer, 0);
+            parseHeader(buffer.array(), buffer.position(), header);
+        }
+        return header;
+    }
+
+    // into header, returns its length in bytes, events start there
+    private static int parseHeader(byte[] data, int length, Map<String, String> header) throws IOException {
+        String text = new String(data, 0, length, StandardCharsets.UTF_8);
+        int end = text.indexOf("\n\n");
+        if (!text.startsWith(MAGIC + "\n") || end < 0) {
+            throw new IOException("not a session recording");
+        }
+        for (String line : text.substring(MAGIC.length() + 1, end).split("\n")) {
+            int colon = line.indexOf(": ");
+            if (colon > 0) {
+                header.put(line.substring(0, colon), line.substring(colon + 2));
+            }
+        }
+        return text.substring(0, end + 2).getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     *
+     * @param rows
+     * @param cols
+     * @return resize payload
+     */
+    public static byte[] rowsCols(int rows, int cols) {
+        return new byte[]{(byte) (rows >> 8), (byte) rows, (byte) (cols >> 8), (byte) cols};
+    }
+
+    /**
+     *
+     * @param recording
+     * @return its index file
+     */
+    public static Path indexOf(Path recording) {
+        return Paths.get(recording.toString() + INDEX_EXTENSION);
+    }
+
+    /**
+     * one recorded event, data is the reader's until the next call
+     */
+    public static final class Event {
+
+        private byte type;
+        private int millis;
+        private final byte[] data;
+        private int length;
+
+        private Event(int capacity) {
+            data = new byte[capacity];
+        }
+
+        /**
+         *
+         * @return
+         */
+        public byte getType() {
+            return type;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public int getMillis() {
+            return millis;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * reads a recording front to back in fixed size chunks, also while it is
+     * still being written
+     */
+    public static final class Reader implements Closeable {
+
+        private final FileChannel channel;
+        private final FileChannel index;
+        private final Map<String, String> header = new LinkedHashMap<>();
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        private final Event event = new Event(64 * 1024 - EVENT_HEADER);
+        private final long firstEvent;
+        // file offset of buffer start
+        private long bufferAt;
+
+        /**
+         *
+         * @param path
+         * @throws IOException
+         */
+        public Reader(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+            Path indexPath = indexOf(path);
+            index = Files.exists(indexPath) ? FileChannel.open(indexPath, StandardOpenOption.READ) : null;
+            try {
+                firstEvent = readHeader();
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        private long readHeader() throws IOException {
+            buffer.clear();
+            channel.read(buffer, 0);
+            buffer.flip();
+            long first = parseHeader(buffer.array(), buffer.limit(), header);
+            position(first);
+            return first;
+        }
+
+        /**
+         *
+         * @param name e.g. session, user, started, rows, cols
+         * @return
+         */
+        public String getHeader(String name) {
+            return header.get(name);
+        }
+
+        /**
+         *
+         * @param name
+         * @param otherwise
+         * @return
+         */
+        public int getHeader(String name, int otherwise) {
+            try {
+                return Integer.parseInt(header.get(name));
+            } catch (NumberFormatException ex) {
+                return otherwise;
+            }
+        }
+
+        /**
+         * from the index, so only as far as it goes
+         *
+         * @return
+         * @throws IOException
+         */
+        public long getIndexedMillis() throws IOException {
+            long entries = index == null ? 0 : index.size() / INDEX_ENTRY;
+            return entries == 0 ? 0 : indexEntry(entries - 1).getLong(0);
+        }
+
+        /**
+         * back to the first event
+         */
+        public void rewind() {
+            position(firstEvent);
+        }
+
+        /**
+         * to the last indexed event at or before millis, next() scans on
+         * from there
+         *
+         * @param millis
+         * @return millis of where it is now
+         * @throws IOException
+         */
+        public long seek(long millis) throws IOException {
+            long low = 0;
+            long high = (index == null ? 0 : index.size() / INDEX_ENTRY) - 1;
+            long at = 0;
+            long offset = firstEvent;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                ByteBuffer entry = indexEntry(mid);
+                if (entry.getLong(0) <= millis) {
+                    at = entry.getLong(0);
+                    offset = entry.getLong(8);
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            position(offset);
+            return at;
+        }
+
+        private ByteBuffer indexEntry(long i) throws IOException {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY);
+            while (entry.hasRemaining()) {
+                if (index.read(entry, i * INDEX_ENTRY + entry.position()) < 0) {
+                    throw new IOException("index truncated");
+                }
+            }
+            return entry;
+        }
+
+        private void position(long offset) {
+            bufferAt = offset;
+            buffer.clear().flip();
+        }
+
+        /**
+         *
+         * @return next event, null at end of what is written so far
+         * @throws IOException
+         */
+        public Event next() throws IOException {
+            if (!fill(EVENT_HEADER)) {
+                return null;
+            }
+            int at = buffer.position();
+            int length = buffer.getInt(at + 5);
+            if (length < 0 || length > event.data.length) {
+                throw new IOException("bad event at " + (bufferAt + at));
+            }
+            if (!fill(EVENT_HEADER + length)) {
+                return null;
+            }
+            at = buffer.position();
+            event.type = buffer.get(at);
+            event.millis = buffer.getInt(at + 1);
+            event.length = length;
+            buffer.position(at + EVENT_HEADER);
+            buffer.get(event.data, 0, length);
+            return event;
+        }
+
+        // at least n bytes from position on in buffer, reading more if needed
+        private boolean fill(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return true;
+            }
+            bufferAt += buffer.position();
+            buffer.compact();
+            while (buffer.position() < n) {
+                if (channel.read(buffer, bufferAt + buffer.position()) <= 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= n;
+        }
+
+        /**
+         *
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (index != null) {
+                    index.close();
+                }
+            }
+        }
+    }
+}
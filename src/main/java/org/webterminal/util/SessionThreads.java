@@ -0,0 +1,214 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webterminal.pojo.SessionThreadInfo;
+
+/**
+ * where session work runs: connect and read loops, prompt matching,
+ * outbound writers. Platform threads by default, virtual threads when
+ * configured and the JVM has them. Every running task is accounted to its
+ * session
+ */
+public class SessionThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionThreads.class);
+
+    /**
+     * a platform thread per task, pooled
+     */
+    public static final String PLATFORM = "platform";
+
+    /**
+     * a virtual thread per task, Java 21+
+     */
+    public static final String VIRTUAL = "virtual";
+
+    /**
+     * task kinds
+     */
+    public static final String CONNECT = "connect";
+    public static final String PROMPT = "prompt";
+    public static final String WRITER = "writer";
+    public static final String PASTE = "paste";
+    public static final String TIMEOUT = "timeout";
+    public static final String KEEPALIVE = "keepalive";
+
+    // both only exist from Java 21 on, build targets 17
+    private static final Method isVirtualMethod = method(Thread.class, "isVirtual");
+    private static final Method newVirtualMethod = method(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+    private static volatile ExecutorService executorService = Executors.newCachedThreadPool();
+    private static volatile String model = PLATFORM;
+
+    private static final Set<SessionThreadInfo> running = ConcurrentHashMap.newKeySet();
+
+    // periodic light work, shared by all sessions
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-ticker");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SessionThreads() {
+    }
+
+    /**
+     *
+     * @param threadModel platform or virtual
+     */
+    public static synchronized void configure(String threadModel) {
+        if (VIRTUAL.equalsIgnoreCase(threadModel)) {
+            if (newVirtualMethod == null) {
+                logger.warn("virtual threads need Java 21+, staying on platform threads");
+                return;
+            }
+            try {
+                ExecutorService previous = executorService;
+                executorService = (ExecutorService) newVirtualMethod.invoke(null);
+                model = VIRTUAL;
+                previous.shutdown();
+                logger.info("session work runs on virtual threads");
+            } catch (ReflectiveOperationException ex) {
+                logger.warn("virtual threads unavailable: {}", ex.toString());
+            }
+        }
+    }
+
+    /**
+     *
+     * @return
+     */
+    public static String getModel() {
+        return model;
+    }
+
+    /**
+     *
+     * @param sessionId
+     * @param kind
+     * @param task
+     */
+    public static void execute(String sessionId, String kind, Runnable task) {
+        executorService.execute(() -> run(sessionId, kind, task));
+    }
+
+    /**
+     *
+     * @param <T>
+     * @param sessionId
+     * @param kind
+     * @param task
+     * @return
+     */
+    public static <T> Future<T> submit(String sessionId, String kind, Callable<T> task) {
+        return executorService.submit(() -> {
+            SessionThreadInfo info = started(sessionId, kind);
+            try {
+                return task.call();
+            } finally {
+                running.remove(info);
+            }
+        });
+    }
+
+    /**
+     * short periodic tasks only, they share one thread
+     *
+     * @param task
+     * @param periodMillis
+     * @return
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long periodMillis) {
+        return scheduler.scheduleAtFixedRate(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                logger.error("periodic task exception: {}", ex.toString());
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void run(String sessionId, String kind, Runnable task) {
+        SessionThreadInfo info = started(sessionId, kind);
+        try {
+            task.run();
+        } finally {
+            running.remove(info);
+        }
+    }
+
+    private static SessionThreadInfo started(String sessionId, String kind) {
+        Thread thread = Thread.currentThread();
+        SessionThreadInfo info = new SessionThreadInfo();
+        info.setSessionId(sessionId);
+        info.setKind(kind);
+        info.setThreadId(thread.getId());
+        info.setThreadName(thread.getName());
+        info.setVirtual(isVirtual(thread));
+        info.setStartTime(System.currentTimeMillis());
+        running.add(info);
+        return info;
+    }
+
+    /**
+     *
+     * @return running tasks per session
+     */
+    public static Map<String, List<SessionThreadInfo>> snapshot() {
+        Map<String, List<SessionThreadInfo>> map = new TreeMap<>();
+        for (SessionThreadInfo info : running) {
+            map.computeIfAbsent(String.valueOf(info.getSessionId()), k -> new ArrayList<>()).add(info);
+        }
+        return map;
+    }
+
+    private static boolean isVirtual(Thread thread) {
+        if (isVirtualMethod != null) {
+            try {
+                return (Boolean) isVirtualMethod.invoke(thread);
+            } catch (ReflectiveOperationException ex) {
+            }
+        }
+        return false;
+    }
+
+    private static Method method(Class<?> type, String name) {
+        try {
+            return type.getMethod(name);
+        } catch (NoSuchMethodException ex) {
+            return null;
+        }
+    }
+}
@@ -21,8 +21,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -34,7 +32,6 @@ import static org.webterminal.constant.Constants.LF;
 public class TimedMatchAndSubmit {
 
     private static final Logger logger = LoggerFactory.getLogger(TimedMatchAndSubmit.class);
-    private static final ExecutorService executorService = Executors.newCachedThreadPool();
 
     /**
      * don't want to be stuck while reading inputStream,
@@ -51,7 +48,8 @@ public class TimedMatchAndSubmit {
     public static void matchPromptToSubmit(int seconds, InputStream in, String[] prompts, String data, Connection connection) throws IOException, InterruptedException {
         logger.debug("start matchPromptToSubmit");
 
-        Future<String> future = executorService.submit(new Callable<String>() {
+        Future<String> future = SessionThreads.submit(connection.getTerminalSessionInfo().getSessionId(),
+                SessionThreads.PROMPT, new Callable<String>() {
             @Override
             public String call() {
                 logger.debug("thread for matchPromptToSubmit start");
@@ -0,0 +1,231 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.UUID;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.webterminal.pojo.TokenRequest;
+
+/**
+ * self contained tokens: "v1." + payload + "." + HMAC-SHA256 signature,
+ * both base64url. Payload is the TokenRequest as JSON plus id and expiry,
+ * password AES-GCM encrypted. Any node with the same secret can check one,
+ * no shared token map needed
+ */
+public class TokenCodec {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenCodec.class);
+
+    private static final String PREFIX = "v1.";
+    private static final String HMAC = "HmacSHA256";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    // skip nulls, tokens travel in URLs
+    private final ObjectMapper objectMapper = JsonMapper.builder()
+            .defaultPropertyInclusion(JsonInclude.Value.construct(JsonInclude.Include.NON_NULL, JsonInclude.Include.NON_NULL))
+            .build();
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec macKey;
+    private final SecretKeySpec encryptionKey;
+
+    /**
+     * a decoded, verified token
+     */
+    public static final class SignedToken {
+
+        private final String id;
+        private final long expiresAt;
+        private final TokenRequest request;
+
+        private SignedToken(String id, long expiresAt, TokenRequest request) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+            this.request = request;
+        }
+
+        /**
+         *
+         * @return unique per token, for the replay cache
+         */
+        public String getId() {
+            return id;
+        }
+
+        /**
+         *
+         * @return epoch millis
+         */
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        /**
+         *
+         * @return
+         */
+        public TokenRequest getRequest() {
+            return request;
+        }
+    }
+
+    /**
+     *
+     * @param secret shared by all nodes
+     * @throws GeneralSecurityException
+     */
+    public TokenCodec(String secret) throws GeneralSecurityException {
+        // separate keys for signing and encryption, both from the one secret
+        byte[] master = secret.getBytes(StandardCharsets.UTF_8);
+        this.macKey = new SecretKeySpec(hmac(master, "webterminal token sign"), HMAC);
+        byte[] encryption = hmac(master, "webterminal token encrypt");
+        this.encryptionKey = new SecretKeySpec(encryption, 0, 16, "AES");
+    }
+
+    /**
+     *
+     * @param token
+     * @return true if in signed format, could still be invalid
+     */
+    public static boolean isSigned(String token) {
+        return token != null && token.startsWith(PREFIX);
+    }
+
+    /**
+     *
+     * @param request
+     * @param expiresAt epoch millis
+     * @return
+     * @throws GeneralSecurityException
+     * @throws JsonProcessingException
+     */
+    public String encode(TokenRequest request, long expiresAt) throws GeneralSecurityException, JsonProcessingException {
+        String id = UUID.randomUUID().toString().replace("-", "");
+
+        ObjectNode requestNode = objectMapper.valueToTree(request);
+        if (request.getPassword() != null) {
+            requestNode.put("password", encrypt(request.getPassword(), id));
+        }
+        ObjectNode payloadNode = objectMapper.createObjectNode();
+        payloadNode.put("id", id);
+        payloadNode.put("exp", expiresAt);
+        payloadNode.set("req", requestNode);
+
+        String payload = encoder.encodeToString(objectMapper.writeValueAsBytes(payloadNode));
+        String signed = PREFIX + payload;
+        return signed + "." + encoder.encodeToString(hmac(macKey, signed));
+    }
+
+    /**
+     *
+     * @param token
+     * @return verified token, null if malformed, forged or expired
+     */
+    public SignedToken decode(String token) {
+        if (!isSigned(token)) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot <= PREFIX.length()) {
+            return null;
+        }
+
+        try {
+            String signed = token.substring(0, dot);
+            byte[] signature = decoder.decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, hmac(macKey, signed))) {
+                logger.warn("token signature mismatch");
+                return null;
+            }
+
+            JsonNode payloadNode = objectMapper.readTree(decoder.decode(signed.substring(PREFIX.length())));
+            String id = payloadNode.path("id").asText();
+            long expiresAt = payloadNode.path("exp").asLong();
+            if (System.currentTimeMillis() >= expiresAt) {
+                logger.debug("token expired: {}", id);
+                return null;
+            }
+
+            ObjectNode requestNode = (ObjectNode) payloadNode.get("req");
+            JsonNode password = requestNode.get("password");
+            if (password != null && !password.isNull()) {
+                requestNode.put("password", decrypt(password.asText(), id));
+            }
+            return new SignedToken(id, expiresAt, objectMapper.treeToValue(requestNode, TokenRequest.class));
+        } catch (IllegalArgumentException | ClassCastException | IOException | GeneralSecurityException ex) {
+            logger.warn("token decode exception: {}", ex.toString());
+            return null;
+        }
+    }
+
+    // iv + ciphertext, token id as associated data so it can't be moved to another token
+    private String encrypt(String plain, String id) throws GeneralSecurityException {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(plain.getBytes(StandardCharsets.UTF_8));
+
+        return encoder.encodeToString(ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted).array());
+    }
+
+    private String decrypt(String encoded, String id) throws GeneralSecurityException {
+        byte[] data = decoder.decode(encoded);
+        if (data.length <= IV_LENGTH) {
+            throw new GeneralSecurityException("encrypted field too short");
+        }
+
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, encryptionKey, new GCMParameterSpec(TAG_BITS, data, 0, IV_LENGTH));
+        cipher.updateAAD(id.getBytes(StandardCharsets.UTF_8));
+        return new String(cipher.doFinal(data, IV_LENGTH, data.length - IV_LENGTH), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] hmac(byte[] key, String data) throws GeneralSecurityException {
+        return hmac(new SecretKeySpec(key, HMAC), data);
+    }
+
+    private static byte[] hmac(SecretKeySpec key, String data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC);
+        mac.init(key);
+        return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
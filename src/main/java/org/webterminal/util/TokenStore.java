@@ -0,0 +1,193 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.webterminal.pojo.PendingTokenInfo;
+import org.webterminal.pojo.TokenRequest;
+
+/**
+ * pending tokens, each with its expiry precomputed on System.nanoTime() so
+ * a lookup checks it in O(1) and an expired token is never handed out.
+ * Expired tokens are also dropped from a timing wheel, no sweeps. Capacity
+ * is bounded, new tokens are refused once it's reached.
+ *
+ * Alongside, a password free PendingTokenInfo per token in issue order, for
+ * listing a filtered page without copying the map
+ */
+public class TokenStore {
+
+    private static final class Entry {
+
+        private final TokenRequest request;
+        private final long expiresAt;
+        private final long seq;
+        private final PendingTokenInfo info;
+
+        private Entry(TokenRequest request, long expiresAt, long seq, PendingTokenInfo info) {
+            this.request = request;
+            this.expiresAt = expiresAt;
+            this.seq = seq;
+            this.info = info;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+
+    private final Map<String, Entry> tokens = new ConcurrentHashMap<>();
+    // oldest first
+    private final ConcurrentSkipListMap<Long, Entry> byAge = new ConcurrentSkipListMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final long ttlNanos;
+    private final int capacity;
+    private final TimingWheel timingWheel;
+
+    /**
+     *
+     * @param ttlSeconds
+     * @param capacity max pending tokens
+     * @param timingWheel
+     */
+    public TokenStore(int ttlSeconds, int capacity, TimingWheel timingWheel) {
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.capacity = capacity;
+        this.timingWheel = timingWheel;
+    }
+
+    /**
+     *
+     * @param token
+     * @param request
+     * @return false if at capacity, token not stored
+     */
+    public boolean put(String token, TokenRequest request) {
+        // size() is an estimate under concurrency, good enough for a bound
+        if (tokens.size() >= capacity) {
+            return false;
+        }
+        Entry entry = new Entry(request, System.nanoTime() + ttlNanos, sequence.incrementAndGet(),
+                new PendingTokenInfo(token, request, System.currentTimeMillis()));
+        // projection first, a take racing with put then can't leave it behind
+        byAge.put(entry.seq, entry);
+        tokens.put(token, entry);
+        timingWheel.schedule(() -> remove(token, entry), TimeUnit.NANOSECONDS.toMillis(ttlNanos));
+        return true;
+    }
+
+    /**
+     *
+     * @param token
+     * @return request, null if unknown or expired
+     */
+    public TokenRequest get(String token) {
+        Entry entry = token == null ? null : tokens.get(token);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            remove(token, entry);
+            return null;
+        }
+        return entry.request;
+    }
+
+    /**
+     * one time use: get and remove in one step, a token is taken at most once
+     *
+     * @param token
+     * @return request, null if unknown, expired or already taken
+     */
+    public TokenRequest take(String token) {
+        Entry entry = token == null ? null : tokens.remove(token);
+        if (entry == null) {
+            return null;
+        }
+        byAge.remove(entry.seq);
+        if (entry.isExpired(System.nanoTime())) {
+            return null;
+        }
+        return entry.request;
+    }
+
+    /**
+     *
+     * @param token
+     */
+    public void remove(String token) {
+        Entry entry = token == null ? null : tokens.remove(token);
+        if (entry != null) {
+            byAge.remove(entry.seq);
+        }
+    }
+
+    /**
+     * a page of unexpired tokens, oldest first. Walks the issue order only as
+     * far as the page needs, stops at the first token younger than minAge
+     *
+     * @param webUserName null for any
+     * @param host null for any, case insensitive
+     * @param minAgeSeconds issued at least this long ago, 0 for any
+     * @param offset matches to skip
+     * @param limit most to return
+     * @return
+     */
+    public List<PendingTokenInfo> pending(String webUserName, String host, int minAgeSeconds, int offset, int limit) {
+        List<PendingTokenInfo> page = new ArrayList<>(Math.max(0, Math.min(limit, byAge.size())));
+        long now = System.nanoTime();
+        long issuedBefore = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(minAgeSeconds);
+        int skip = offset;
+
+        for (Entry entry : byAge.values()) {
+            if (page.size() >= limit || entry.info.getIssuedAt() > issuedBefore) {
+                break;
+            }
+            if (entry.isExpired(now)
+                    || webUserName != null && !webUserName.equals(entry.info.getWebUserName())
+                    || host != null && !host.equalsIgnoreCase(entry.info.getHost())) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            page.add(entry.info);
+        }
+        return page;
+    }
+
+    /**
+     *
+     * @return
+     */
+    public int size() {
+        return tokens.size();
+    }
+
+    private void remove(String token, Entry entry) {
+        tokens.remove(token, entry);
+        byAge.remove(entry.seq, entry);
+    }
+}
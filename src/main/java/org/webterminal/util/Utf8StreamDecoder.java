@@ -0,0 +1,102 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+public class Utf8StreamDecoder {
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // incomplete sequence left over from previous chunk, at most 3 bytes
+    private final ByteBuffer carry = ByteBuffer.allocate(8);
+
+    private CharBuffer chars = CharBuffer.allocate(4096);
+
+    /**
+     * decodes one chunk of a stream, a multi-byte character split across
+     * chunks is carried over to the next call instead of being replaced
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return reused buffer, ready to read, valid until next call
+     */
+    public CharBuffer decode(byte[] data, int offset, int length) {
+        // UTF-8 never yields more chars than bytes
+        if (chars.capacity() < length + carry.capacity()) {
+            chars = CharBuffer.allocate(length + carry.capacity());
+        }
+        chars.clear();
+
+        ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+
+        // finish pending sequence first, one byte at a time
+        while (carry.position() > 0 && in.hasRemaining()) {
+            carry.put(in.get());
+            carry.flip();
+            decoder.decode(carry, chars, false);
+            carry.compact();
+        }
+
+        decoder.decode(in, chars, false);
+        // whatever is left is an incomplete trailing sequence
+        carry.put(in);
+
+        chars.flip();
+        return chars;
+    }
+
+    /**
+     * chunk not needed as text, only keep its incomplete trailing sequence so
+     * the next decode stays aligned
+     *
+     * @param data
+     * @param offset
+     * @param length
+     */
+    public void skip(byte[] data, int offset, int length) {
+        int end = offset + length;
+        // a pending sequence takes its continuation bytes from this chunk first
+        while (carry.position() > 0 && offset < end) {
+            decode(data, offset++, 1);
+        }
+        if (offset < end) {
+            int tail = incompleteTail(data, offset, end - offset);
+            carry.put(data, end - tail, tail);
+        }
+    }
+
+    private static int incompleteTail(byte[] data, int offset, int length) {
+        int end = offset + length;
+        for (int i = end - 1; i >= offset && i >= end - 3; i--) {
+            int b = data[i] & 0xff;
+            if ((b & 0xc0) != 0x80) {
+                int need = (b & 0xe0) == 0xc0 ? 2 : (b & 0xf0) == 0xe0 ? 3 : (b & 0xf8) == 0xf0 ? 4 : 1;
+                return end - i < need ? end - i : 0;
+            }
+        }
+        return 0;
+    }
+}
@@ -46,11 +46,13 @@ public class WebTerminalWebSocketHandler implements WebSocketHandler {
             logger.trace("Session: {}, payload: {}", webSocketSession.getAttributes().get(SESSION_UUID), webSocketMessage.getPayload());
             webTerminalService.textMessageHandler(((TextMessage) webSocketMessage).getPayload(), webSocketSession);
         } else if (webSocketMessage instanceof BinaryMessage) {
-            logger.warn("NotHandled Binary WebSocket message: {}", webSocketMessage);
+            logger.trace("Session: {}, binary: {}", webSocketSession.getAttributes().get(SESSION_UUID), webSocketMessage.getPayloadLength());
+            webTerminalService.binaryMessageHandler(((BinaryMessage) webSocketMessage).getPayload(), webSocketSession);
         } else if (webSocketMessage instanceof PingMessage) {
             logger.warn("NotHandled Ping WebSocket message: {}", webSocketMessage);
         } else if (webSocketMessage instanceof PongMessage) {
-            logger.warn("NotHandled Pong WebSocket message: {}", webSocketMessage);
+            // answer to our keepalive ping
+            logger.trace("Pong WebSocket message: {}", webSocketMessage);
         } else {
             logger.warn("Unexpected WebSocket message: {}", webSocketMessage);
         }
@@ -11,6 +11,8 @@ WebTerminalClient.prototype.connect = function (options) {
 
     if (window.WebSocket) {
         this._connection = new WebSocket(endpoint);
+        // binary frames (protocol v1) delivered as ArrayBuffer, no Blob/FileReader round trip
+        this._connection.binaryType = "arraybuffer";
     } else {
         options.onError("WebSocket Not Supported");
         return;
@@ -35,4 +37,16 @@ WebTerminalClient.prototype.sendOutData = function (data) {
     } else {
         console.log("WebSocket Connection No Longer Open");
     }
+};
+
+// protocol v1 only: 1 byte type tag followed by payload bytes (Uint8Array)
+WebTerminalClient.prototype.sendOutFrame = function (type, payload) {
+    if (this._connection.readyState === WebSocket.OPEN) {
+        var frame = new Uint8Array(1 + payload.length);
+        frame[0] = type;
+        frame.set(payload, 1);
+        this._connection.send(frame);
+    } else {
+        console.log("WebSocket Connection No Longer Open");
+    }
 };
\ No newline at end of file
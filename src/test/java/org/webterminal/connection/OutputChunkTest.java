@@ -0,0 +1,84 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+import static org.webterminal.connection.Connection.FRAME_HEADROOM;
+import static org.webterminal.constant.Constants.FRAME_DATA;
+import org.webterminal.util.Utf8StreamDecoder;
+
+public class OutputChunkTest {
+
+    @Test
+    public void frameBuiltInPlaceAndKept() {
+        byte[] buffer = new byte[FRAME_HEADROOM + 16];
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(data, 0, buffer, FRAME_HEADROOM, data.length);
+
+        OutputChunk chunk = new OutputChunk(new Utf8StreamDecoder());
+        chunk.reset(buffer, FRAME_HEADROOM, data.length);
+        byte[] frame = payload(chunk.toBinaryMessage().getPayload());
+        assertEquals(FRAME_DATA, frame[0]);
+        assertArrayEquals(data, java.util.Arrays.copyOfRange(frame, 1, frame.length));
+
+        // encoded once per chunk
+        assertArrayEquals(frame, payload(chunk.toBinaryMessage().getPayload()));
+
+        // read buffer reused for the next chunk, queued frame unchanged
+        chunk.done();
+        System.arraycopy("world".getBytes(StandardCharsets.UTF_8), 0, buffer, FRAME_HEADROOM, 5);
+        chunk.reset(buffer, FRAME_HEADROOM, 5);
+        assertEquals('h', frame[1]);
+        assertEquals('w', payload(chunk.toBinaryMessage().getPayload())[1]);
+    }
+
+    @Test
+    public void textDecodedOnce() {
+        byte[] buffer = new byte[FRAME_HEADROOM + 8];
+        buffer[FRAME_HEADROOM] = 'x';
+        OutputChunk chunk = new OutputChunk(new Utf8StreamDecoder());
+        chunk.reset(buffer, FRAME_HEADROOM, 1);
+        assertSame(chunk.text(), chunk.text());
+        assertEquals("x", chunk.text().toString());
+    }
+
+    @Test
+    public void decoderAlignedWhenTextNotAsked() {
+        byte[] bytes = "\u4f60\u597d".getBytes(StandardCharsets.UTF_8);
+        byte[] buffer = new byte[FRAME_HEADROOM + bytes.length];
+        System.arraycopy(bytes, 0, buffer, FRAME_HEADROOM, bytes.length);
+        OutputChunk chunk = new OutputChunk(new Utf8StreamDecoder());
+
+        // first chunk ends inside the second character, nobody wants its text
+        chunk.reset(buffer, FRAME_HEADROOM, 4);
+        chunk.done();
+        chunk.reset(buffer, FRAME_HEADROOM + 4, bytes.length - 4);
+        assertEquals("\u597d", chunk.text().toString());
+    }
+
+    private static byte[] payload(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
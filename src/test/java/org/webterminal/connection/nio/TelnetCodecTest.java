@@ -0,0 +1,224 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.connection.nio;
+
+import java.io.ByteArrayOutputStream;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import static org.webterminal.connection.nio.TelnetCodec.DO;
+import static org.webterminal.connection.nio.TelnetCodec.DONT;
+import static org.webterminal.connection.nio.TelnetCodec.ECHO;
+import static org.webterminal.connection.nio.TelnetCodec.IAC;
+import static org.webterminal.connection.nio.TelnetCodec.NAWS;
+import static org.webterminal.connection.nio.TelnetCodec.SB;
+import static org.webterminal.connection.nio.TelnetCodec.SE;
+import static org.webterminal.connection.nio.TelnetCodec.SGA;
+import static org.webterminal.connection.nio.TelnetCodec.TTYPE;
+import static org.webterminal.connection.nio.TelnetCodec.TTYPE_IS;
+import static org.webterminal.connection.nio.TelnetCodec.TTYPE_SEND;
+import static org.webterminal.connection.nio.TelnetCodec.WILL;
+import static org.webterminal.connection.nio.TelnetCodec.WONT;
+
+public class TelnetCodecTest {
+
+    private static final byte[] NONE = new byte[0];
+
+    private static byte[] bytes(int... values) {
+        byte[] data = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            data[i] = (byte) values[i];
+        }
+        return data;
+    }
+
+    // whole input in one decode
+    private static byte[] decode(TelnetCodec codec, byte[] input) {
+        byte[] buffer = input.clone();
+        int n = codec.decode(buffer, 0, buffer.length);
+        byte[] data = new byte[n];
+        System.arraycopy(buffer, 0, data, 0, n);
+        return data;
+    }
+
+    // one decode per byte, at an offset, so every sequence is split
+    private static byte[] decodeSplit(TelnetCodec codec, byte[] input) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte b : input) {
+            byte[] buffer = {'x', b};
+            int n = codec.decode(buffer, 1, 1);
+            out.write(buffer, 1, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static TelnetCodec codec() {
+        return new TelnetCodec("xterm", 80, 24);
+    }
+
+    @Test
+    public void plainDataUnchanged() {
+        byte[] text = "hello\r\nworld".getBytes();
+        assertArrayEquals(text, decode(codec(), text));
+        assertArrayEquals(text, decodeSplit(codec(), text));
+    }
+
+    @Test
+    public void escapedIacIsData() {
+        byte[] input = bytes('a', IAC, IAC, 'b');
+        byte[] expected = bytes('a', IAC, 'b');
+        assertArrayEquals(expected, decode(codec(), input));
+        assertArrayEquals(expected, decodeSplit(codec(), input));
+    }
+
+    @Test
+    public void crNulIsBareCr() {
+        byte[] input = bytes('a', '\r', 0, 'b', '\r', '\n', '\r', '\r', 0, 'c');
+        byte[] expected = bytes('a', '\r', 'b', '\r', '\n', '\r', '\r', 'c');
+        assertArrayEquals(expected, decode(codec(), input));
+        assertArrayEquals(expected, decodeSplit(codec(), input));
+    }
+
+    @Test
+    public void crThenCommand() {
+        TelnetCodec codec = codec();
+        assertArrayEquals(bytes('\r', 'a'), decodeSplit(codec, bytes('\r', IAC, WILL, ECHO, 'a')));
+        assertTrue(codec.isRemoteEcho());
+    }
+
+    @Test
+    public void commandsStripped() {
+        byte[] input = bytes('a', IAC, 241, 'b', IAC, WILL, SGA, 'c', IAC, DO, 99, 'd');
+        assertArrayEquals(bytes('a', 'b', 'c', 'd'), decode(codec(), input));
+        assertArrayEquals(bytes('a', 'b', 'c', 'd'), decodeSplit(codec(), input));
+    }
+
+    @Test
+    public void unsupportedOptionsRefused() {
+        TelnetCodec codec = codec();
+        decode(codec, bytes(IAC, WILL, 99, IAC, DO, 98));
+        assertArrayEquals(bytes(IAC, DONT, 99, IAC, WONT, 98), codec.takeReplies());
+        assertFalse(codec.hasReplies());
+    }
+
+    @Test
+    public void remoteEchoAcceptedOnce() {
+        TelnetCodec codec = codec();
+        decodeSplit(codec, bytes(IAC, WILL, ECHO));
+        assertTrue(codec.isRemoteEcho());
+        assertArrayEquals(bytes(IAC, DO, ECHO), codec.takeReplies());
+
+        // already agreed, no answer to an answer
+        decodeSplit(codec, bytes(IAC, WILL, ECHO));
+        assertArrayEquals(NONE, codec.takeReplies());
+
+        decodeSplit(codec, bytes(IAC, WONT, ECHO));
+        assertFalse(codec.isRemoteEcho());
+        assertArrayEquals(bytes(IAC, DONT, ECHO), codec.takeReplies());
+        decodeSplit(codec, bytes(IAC, WONT, ECHO));
+        assertArrayEquals(NONE, codec.takeReplies());
+    }
+
+    @Test
+    public void offersNotAnsweredTwice() {
+        TelnetCodec codec = codec();
+        codec.start();
+        assertArrayEquals(bytes(IAC, WILL, TTYPE, IAC, WILL, NAWS), codec.takeReplies());
+
+        // DO to our WILL is an answer, only the window size goes out
+        decode(codec, bytes(IAC, DO, TTYPE, IAC, DO, NAWS));
+        assertArrayEquals(bytes(IAC, SB, NAWS, 0, 80, 0, 24, IAC, SE), codec.takeReplies());
+        decode(codec, bytes(IAC, DO, TTYPE));
+        assertArrayEquals(NONE, codec.takeReplies());
+    }
+
+    @Test
+    public void refusedOfferNotAnswered() {
+        TelnetCodec codec = codec();
+        codec.start();
+        codec.takeReplies();
+        decode(codec, bytes(IAC, DONT, NAWS));
+        assertArrayEquals(NONE, codec.takeReplies());
+
+        // not offered, agreed on their request, then withdrawn
+        decode(codec, bytes(IAC, DO, SGA));
+        assertArrayEquals(bytes(IAC, WILL, SGA), codec.takeReplies());
+        decode(codec, bytes(IAC, DONT, SGA));
+        assertArrayEquals(bytes(IAC, WONT, SGA), codec.takeReplies());
+    }
+
+    @Test
+    public void terminalTypeSubnegotiation() {
+        TelnetCodec codec = codec();
+        codec.start();
+        decode(codec, bytes(IAC, DO, TTYPE));
+        codec.takeReplies();
+
+        byte[] input = bytes('a', IAC, SB, TTYPE, TTYPE_SEND, IAC, SE, 'b');
+        assertArrayEquals(bytes('a', 'b'), decodeSplit(codec, input));
+        assertArrayEquals(bytes(IAC, SB, TTYPE, TTYPE_IS, 'x', 't', 'e', 'r', 'm', IAC, SE), codec.takeReplies());
+    }
+
+    @Test
+    public void terminalTypeNotSentUnlessAgreed() {
+        TelnetCodec codec = codec();
+        decode(codec, bytes(IAC, SB, TTYPE, TTYPE_SEND, IAC, SE));
+        assertArrayEquals(NONE, codec.takeReplies());
+    }
+
+    @Test
+    public void subnegotiationWithEscapedIac() {
+        // IAC IAC inside SB is data, not its end
+        byte[] input = bytes('a', IAC, SB, 99, 1, IAC, IAC, SE, 2, IAC, SE, 'b');
+        assertArrayEquals(bytes('a', 'b'), decode(codec(), input));
+        assertArrayEquals(bytes('a', 'b'), decodeSplit(codec(), input));
+    }
+
+    @Test
+    public void windowSizeEscapesIac() {
+        TelnetCodec codec = new TelnetCodec("xterm", 255, 511);
+        codec.start();
+        codec.takeReplies();
+        decodeSplit(codec, bytes(IAC, DO, NAWS));
+        assertArrayEquals(bytes(IAC, SB, NAWS, 0, IAC, IAC, 1, IAC, IAC, IAC, SE), codec.takeReplies());
+    }
+
+    @Test
+    public void resizeOnlyOnceAgreed() {
+        TelnetCodec codec = codec();
+        codec.resize(100, 30);
+        assertFalse(codec.hasReplies());
+
+        codec.start();
+        decode(codec, bytes(IAC, DO, NAWS));
+        codec.takeReplies();
+        codec.resize(132, 43);
+        assertArrayEquals(bytes(IAC, SB, NAWS, 0, 132, 0, 43, IAC, SE), codec.takeReplies());
+    }
+
+    @Test
+    public void encodeEscapes() {
+        byte[] plain = "ls\r\n".getBytes();
+        assertSame(plain, TelnetCodec.encode(plain));
+        assertArrayEquals(bytes('a', IAC, IAC, 'b'), TelnetCodec.encode(bytes('a', IAC, 'b')));
+        assertArrayEquals(bytes('a', '\r', 0, 'b', '\r', 0), TelnetCodec.encode(bytes('a', '\r', 'b', '\r')));
+        assertArrayEquals(bytes('\r', 0, '\r', '\n'), TelnetCodec.encode(bytes('\r', '\r', '\n')));
+    }
+}
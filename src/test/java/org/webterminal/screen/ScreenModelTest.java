@@ -0,0 +1,178 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.screen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class ScreenModelTest {
+
+    private static final String ESC = "\u001b";
+
+    private static ScreenModel fed(int rows, int cols, String... chunks) {
+        ScreenModel screen = new ScreenModel(rows, cols, 0);
+        for (String chunk : chunks) {
+            screen.feed(chunk);
+        }
+        return screen;
+    }
+
+    private static void assertCursor(ScreenModel screen, int row, int col) {
+        assertEquals(row, screen.getCursorRow(), "cursor row");
+        assertEquals(col, screen.getCursorCol(), "cursor col");
+    }
+
+    // same screens, cursor and state as far as a snapshot shows them
+    private static void assertSameScreen(ScreenModel expected, ScreenModel actual) {
+        assertEquals(expected.snapshot(), actual.snapshot());
+        assertCursor(actual, expected.getCursorRow(), expected.getCursorCol());
+    }
+
+    // what a viewer attaching now ends up with
+    private static ScreenModel viewerOf(ScreenModel screen) {
+        return fed(screen.getRows(), screen.getCols(), screen.snapshot());
+    }
+
+    @Test
+    public void cursorMoves() {
+        ScreenModel screen = fed(24, 80, ESC + "[5;10H");
+        assertCursor(screen, 4, 9);
+        screen.feed(ESC + "[2A");
+        assertCursor(screen, 2, 9);
+        screen.feed(ESC + "[3B" + ESC + "[4D");
+        assertCursor(screen, 5, 5);
+        screen.feed(ESC + "[100C");
+        assertCursor(screen, 5, 79);
+        screen.feed(ESC + "[100;100H");
+        assertCursor(screen, 23, 79);
+        screen.feed(ESC + "[H");
+        assertCursor(screen, 0, 0);
+        screen.feed(ESC + "[7G" + ESC + "[3d");
+        assertCursor(screen, 2, 6);
+        screen.feed("\r\tx");
+        assertCursor(screen, 2, 9);
+        assertEquals("        x", screen.lineAt(2));
+    }
+
+    @Test
+    public void sequenceSplitAcrossChunks() {
+        ScreenModel screen = fed(24, 80, ESC, "[", "5;1", "0H", "ab");
+        assertCursor(screen, 4, 11);
+        assertEquals("         ab", screen.lineAt(4));
+    }
+
+    @Test
+    public void textAndWrap() {
+        ScreenModel screen = fed(3, 5, "abcde");
+        // pending wrap, still on the last column
+        assertCursor(screen, 0, 4);
+        screen.feed("f");
+        assertEquals("abcde", screen.lineAt(0));
+        assertEquals("f", screen.lineAt(1));
+        screen.feed("\r\nxy" + ESC + "[2D" + ESC + "[K");
+        assertEquals("", screen.lineAt(2));
+    }
+
+    @Test
+    public void scrollRegion() {
+        ScreenModel screen = fed(6, 10, "L1\r\nL2\r\nL3\r\nL4\r\nL5\r\nL6");
+        screen.feed(ESC + "[2;4r");
+        assertCursor(screen, 0, 0);
+        // line feed at the region's bottom scrolls the region only
+        screen.feed(ESC + "[4;1H\nN");
+        assertEquals("L1", screen.lineAt(0));
+        assertEquals("L3", screen.lineAt(1));
+        assertEquals("L4", screen.lineAt(2));
+        assertEquals("N", screen.lineAt(3));
+        assertEquals("L5", screen.lineAt(4));
+        assertEquals("L6", screen.lineAt(5));
+
+        // reverse index at its top scrolls it down
+        screen.feed(ESC + "[2;1H" + ESC + "M");
+        assertEquals("", screen.lineAt(1));
+        assertEquals("L3", screen.lineAt(2));
+        assertEquals("L4", screen.lineAt(3));
+        assertEquals("L5", screen.lineAt(4));
+    }
+
+    @Test
+    public void alternateScreen() {
+        ScreenModel screen = fed(5, 20, "main\r\n  prompt", ESC + "[?1049h");
+        assertTrue(screen.isAltScreen());
+        assertEquals("", screen.lineAt(0));
+        screen.feed(ESC + "[3;3Halt");
+        assertEquals("  alt", screen.lineAt(2));
+
+        screen.feed(ESC + "[?1049l");
+        assertFalse(screen.isAltScreen());
+        assertEquals("main", screen.lineAt(0));
+        assertEquals("  prompt", screen.lineAt(1));
+        assertCursor(screen, 1, 8);
+    }
+
+    @Test
+    public void snapshotRoundTrip() {
+        ScreenModel screen = fed(6, 20,
+                "plain " + ESC + "[1;31mred" + ESC + "[0m\r\n",
+                ESC + "[44mblue bg" + ESC + "[0m\r\n" + ESC + "[7minverse",
+                ESC + "[2;5r" + ESC + "[4;6H" + ESC + "[4mx");
+        assertSameScreen(screen, viewerOf(screen));
+    }
+
+    @Test
+    public void snapshotKeepsScrollRegion() {
+        ScreenModel screen = fed(6, 10, "L1\r\nL2\r\nL3\r\nL4\r\nL5\r\nL6", ESC + "[2;4r");
+        ScreenModel viewer = viewerOf(screen);
+        String more = ESC + "[4;1H\nA\nB";
+        screen.feed(more);
+        viewer.feed(more);
+        assertSameScreen(screen, viewer);
+        assertEquals("L1", viewer.lineAt(0));
+        assertEquals("L5", viewer.lineAt(4));
+    }
+
+    @Test
+    public void snapshotKeepsSavedCursor() {
+        ScreenModel screen = fed(5, 20, "abc", ESC + "[3;7H" + ESC + "[1m" + ESC + "7", ESC + "[0m" + ESC + "[1;1H");
+        ScreenModel viewer = viewerOf(screen);
+        String restore = ESC + "8x";
+        screen.feed(restore);
+        viewer.feed(restore);
+        assertCursor(viewer, 2, 7);
+        assertSameScreen(screen, viewer);
+    }
+
+    @Test
+    public void snapshotInAlternateScreen() {
+        ScreenModel screen = fed(5, 20, "$ vi\r\n", ESC + "[?1049h", ESC + "[2;2Hediting");
+        ScreenModel viewer = viewerOf(screen);
+        assertTrue(viewer.isAltScreen());
+        assertSameScreen(screen, viewer);
+
+        // leaving restores the cursor saved on the way in, not where the
+        // snapshot happened to draw last
+        String leave = ESC + "[?1049l";
+        screen.feed(leave);
+        viewer.feed(leave);
+        assertFalse(viewer.isAltScreen());
+        assertCursor(viewer, 1, 0);
+        assertSameScreen(screen, viewer);
+    }
+}
@@ -0,0 +1,49 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import org.junit.jupiter.api.Test;
+
+public class BufferPoolTest {
+
+    @Test
+    public void sharedPoolPerSize() {
+        assertSame(BufferPool.forSize(1234), BufferPool.forSize(1234));
+        assertNotSame(BufferPool.forSize(1234), BufferPool.forSize(1235));
+    }
+
+    @Test
+    public void releasedBufferReused() {
+        BufferPool pool = BufferPool.forSize(4321);
+        byte[] buffer = pool.acquire();
+        assertEquals(4321, buffer.length);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void otherSizeNotPooled() {
+        BufferPool pool = BufferPool.forSize(2345);
+        byte[] other = new byte[100];
+        pool.release(other);
+        assertNotSame(other, pool.acquire());
+    }
+}
@@ -0,0 +1,91 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.Test;
+import org.webterminal.pojo.TwoWayMessage;
+
+public class InboundFramesTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // payloads as they appear between the quotes, JSON escaped
+    private static final String[] PAYLOADS = {
+        "ls -l\\r",
+        "",
+        "\\u001b[A\\u001b[B",
+        "\\\"quoted\\\" \\\\ \\/ \\b\\f\\n\\r\\t",
+        "\u00e9\u4f60\ud83d\ude00",
+        "\\u00e9\\u4F60\\ud83d\\ude00",
+        "\ud83d" + "\\ude00",
+        "\\ud83d" + "\ude00",
+        "\ud83d",
+        "a\ude00b",
+        "\\ud83dx",
+        "\\ud83d\\u0041",
+        "\u007f\u0080\u07ff\u0800\uffff"
+    };
+
+    private static String frame(String payload) {
+        return "{\"t\":\"d\",\"p\":\"" + payload + "\"}";
+    }
+
+    private static byte[] viaJackson(String json) throws Exception {
+        return MAPPER.readValue(json, TwoWayMessage.class).getP().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void sameBytesAsJackson() throws Exception {
+        for (String payload : PAYLOADS) {
+            String json = frame(payload);
+            byte[] data = InboundFrames.parseData(json);
+            assertNotNull(data, json);
+            assertArrayEquals(viaJackson(json), data, json);
+        }
+    }
+
+    @Test
+    public void rawControlCharsLeftToJackson() {
+        assertNull(InboundFrames.parseData(frame("a\rb")));
+        assertNull(InboundFrames.parseData(frame("\u001b[A")));
+        assertNull(InboundFrames.parseData(frame("\u0000")));
+    }
+
+    @Test
+    public void nonAsciiHexDigitsRejected() {
+        // fullwidth and arabic-indic digits
+        assertNull(InboundFrames.parseData(frame("\\u\uff10\uff10\uff14\uff11")));
+        assertNull(InboundFrames.parseData(frame("\\u0\u0660\u0664\u0661")));
+        assertNull(InboundFrames.parseData(frame("\\ud83d\\u\uff44e00")));
+    }
+
+    @Test
+    public void otherMessagesLeftToJackson() {
+        assertNull(InboundFrames.parseData("{\"t\":\"r\",\"p\":\"24,80\"}"));
+        assertNull(InboundFrames.parseData(frame("a\"b")));
+        assertNull(InboundFrames.parseData(frame("a\\")));
+        assertNull(InboundFrames.parseData(frame("\\u00")));
+        assertNull(InboundFrames.parseData(frame("\\x41")));
+        assertNull(InboundFrames.parseData("{\"t\":\"d\",\"p\":\""));
+    }
+}
@@ -0,0 +1,99 @@
+/* part of WebTerminal project
+
+   Copyright (C) 2022  ZP Gu. All rights reserved.
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU General Public License for more details.
+
+    You should have received a copy of the GNU General Public License
+    along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package org.webterminal.util;
+
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+
+public class Utf8StreamDecoderTest {
+
+    // 1, 2, 3 and 4 byte sequences
+    private static final String TEXT = "a\u00e9\u4f60\ud83d\ude00z\u00e9\u4f60\ud83d\ude00";
+
+    private static final byte[] BYTES = TEXT.getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void splitAtEveryPosition() {
+        for (int split = 0; split <= BYTES.length; split++) {
+            Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+            String first = decoder.decode(BYTES, 0, split).toString();
+            String second = decoder.decode(BYTES, split, BYTES.length - split).toString();
+            assertEquals(TEXT, first + second, "split at " + split);
+        }
+    }
+
+    @Test
+    public void oneByteChunks() {
+        Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < BYTES.length; i++) {
+            text.append(decoder.decode(BYTES, i, 1));
+        }
+        assertEquals(TEXT, text.toString());
+    }
+
+    @Test
+    public void skipKeepsTrailingSequence() {
+        for (int split = 0; split <= BYTES.length; split++) {
+            Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+            decoder.skip(BYTES, 0, split);
+            String rest = decoder.decode(BYTES, split, BYTES.length - split).toString();
+            assertEquals(expectedTail(split), rest, "skip to " + split);
+        }
+    }
+
+    @Test
+    public void skipAfterCarry() {
+        // decode leaves a carry, skip must finish it before looking at its own tail
+        for (int first = 0; first <= BYTES.length; first++) {
+            for (int second = first; second <= BYTES.length; second++) {
+                Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+                decoder.decode(BYTES, 0, first);
+                decoder.skip(BYTES, first, second - first);
+                String rest = decoder.decode(BYTES, second, BYTES.length - second).toString();
+                assertEquals(expectedTail(second), rest, "decode to " + first + ", skip to " + second);
+            }
+        }
+    }
+
+    @Test
+    public void emptyChunks() {
+        Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+        decoder.decode(BYTES, 0, 2);
+        assertEquals("", decoder.decode(BYTES, 2, 0).toString());
+        decoder.skip(BYTES, 2, 0);
+        assertEquals(expectedTail(2), decoder.decode(BYTES, 2, BYTES.length - 2).toString());
+    }
+
+    @Test
+    public void malformedReplaced() {
+        Utf8StreamDecoder decoder = new Utf8StreamDecoder();
+        byte[] bad = {'a', (byte) 0xff, 'b'};
+        assertEquals("a\ufffdb", decoder.decode(bad, 0, bad.length).toString());
+    }
+
+    // what decoding from byte offset on shows, the character split there included
+    private static String expectedTail(int offset) {
+        int start = offset;
+        while (start > 0 && start < BYTES.length && (BYTES[start] & 0xc0) == 0x80) {
+            start--;
+        }
+        return new String(BYTES, start, BYTES.length - start, StandardCharsets.UTF_8);
+    }
+}